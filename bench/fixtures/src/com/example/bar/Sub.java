@@ -0,0 +1,9 @@
+package com.example.bar;
+import com.example.foo.Base;
+public final class Sub extends Base implements Runnable {
+	public void run () {}
+	protected void hook (int a) {}
+	public String create () { return null; }
+	public void extra (java.util.List<? super Integer> l, int[][] grid) {}
+	@Deprecated public Sub () {}
+}
@@ -0,0 +1,9 @@
+package com.example.bar;
+public abstract class Util {
+	public static int add (int left, int right) { return left + right; }
+	public abstract void run (Runnable r);
+	public static final char C = 'x';
+	public static final byte B = 7;
+	public static final short S = 300;
+}
+class Hidden { public void h () {} }
@@ -0,0 +1,7 @@
+package com.example.foo;
+public class Base {
+	public void baseMethod () {}
+	public String toString () { return "b"; }
+	protected void hook (int a) {}
+	public Object create () { return null; }
+}
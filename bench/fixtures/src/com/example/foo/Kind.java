@@ -0,0 +1,2 @@
+package com.example.foo;
+public enum Kind { ONE, TWO; public int weight (int factor) { return factor; } }
@@ -0,0 +1,35 @@
+package com.example.foo;
+
+import java.util.List;
+import java.util.Map;
+
+public class Widget<T extends Comparable<T>> extends Base implements Comparable<Widget<T>>, java.io.Serializable {
+	public static final int MAX = 42;
+	public static final long BIG = 1234567890123L;
+	public static final String NAME = "wid\"get\u1234";
+	public static final double PI = 3.14159;
+	public static final float F = 1.5f;
+	public static final boolean FLAG = true;
+	protected int[] arr;
+	@Deprecated public static int OLD = 1;
+	public volatile transient Object obj;
+
+	public Widget () {}
+	public Widget (int size, String label) {}
+	protected Widget (List<T> items) {}
+
+	public int compareTo (Widget<T> other) { return 0; }
+	public void setSize (int width, int height) {}
+	public void setSize (long packed) {}
+	public <U extends Number> U convert (U value, Map<String, ? extends U> map) { return value; }
+	public void log (String fmt, Object... args) {}
+	@Deprecated public void oldMethod (String s) {}
+	public synchronized void sync () throws java.io.IOException, IllegalStateException {}
+	public String toString () { return ""; }
+	public void baseMethod () {}
+	public static native void nat (double d);
+	public abstract static class Inner { public Inner (String s) {} public abstract void run (int x, char[] y); public void again (long l, double d) {} }
+	public class NonStatic { public NonStatic (int q) {} public void go (Widget<T> w) {} }
+	public interface Listener { void onEvent (int code, String message); }
+	public static class Deep { public static class Deeper { public void dive (int depth) {} } }
+}
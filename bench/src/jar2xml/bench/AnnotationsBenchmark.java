@@ -0,0 +1,20 @@
+package jar2xml.bench;
+
+import jar2xml.scrapers.AndroidDocScraper;
+import jar2xml.scrapers.DeprecatedMembers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+// AndroidDocScraper.loadXml () of the --annotations file.
+@State (Scope.Benchmark)
+public class AnnotationsBenchmark {
+
+	String path = Fixtures.get ("annotations.xml").getPath ();
+
+	@Benchmark
+	public DeprecatedMembers loadXml ()
+	{
+		return AndroidDocScraper.loadXml (path);
+	}
+}
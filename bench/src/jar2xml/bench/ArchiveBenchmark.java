@@ -0,0 +1,29 @@
+package jar2xml.bench;
+
+import java.util.List;
+
+import jar2xml.JavaArchive;
+import jar2xml.JavaPackage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+// JavaArchive.getPackages (): opening the jar, reading and loading its classes.
+@State (Scope.Benchmark)
+public class ArchiveBenchmark {
+
+	@Param ({"reflection", "asm"})
+	public String engine;
+
+	@Benchmark
+	public List<JavaPackage> getPackages () throws Exception
+	{
+		JavaArchive archive = Fixtures.openArchive (engine.equals ("asm"));
+		try {
+			return archive.getPackages ();
+		} finally {
+			archive.close ();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package jar2xml.bench;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import jar2xml.JavaArchive;
+import jar2xml.JavaClass;
+import jar2xml.JavaPackage;
+import jar2xml.scrapers.AndroidDocScraper;
+import jar2xml.scrapers.DroidDocScraper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+// JavaClass.appendToDocument () of one class, with droiddoc parameter names
+// and annotations as for the Android API descriptions.
+@State (Scope.Benchmark)
+public class ClassBenchmark {
+
+	@Param ({"reflection", "asm"})
+	public String engine;
+
+	@Param ({"com.example.foo.Widget", "com.example.bar.Sub", "com.example.foo.Kind"})
+	public String className;
+
+	JavaArchive archive;
+	JavaClass cls;
+	Document doc;
+
+	@Setup
+	public void setUp () throws Exception
+	{
+		archive = Fixtures.openArchive (engine.equals ("asm"));
+		archive.addDocScraper (new DroidDocScraper (Fixtures.get ("droiddoc")));
+		archive.setDeprecatedMembers (AndroidDocScraper.loadXml (Fixtures.get ("annotations.xml").getPath ()));
+		for (JavaPackage pkg : archive.getPackages ())
+			for (JavaClass c : pkg.getClasses ())
+				if (c.getName ().equals (className))
+					cls = c;
+		if (cls == null)
+			throw new IllegalStateException ("no class " + className + " in " + Fixtures.jar);
+		doc = DocumentBuilderFactory.newInstance ().newDocumentBuilder ().newDocument ();
+	}
+
+	@TearDown
+	public void tearDown ()
+	{
+		archive.close ();
+	}
+
+	@Benchmark
+	public Element appendToDocument ()
+	{
+		Element container = doc.createElement ("package");
+		cls.appendToDocument (doc, container);
+		return container;
+	}
+}
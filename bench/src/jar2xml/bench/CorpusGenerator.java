@@ -0,0 +1,342 @@
+package jar2xml.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+// Generates a synthetic library of the given size and shape, with what
+// jar2xml takes for it:
+//
+//	<out>/corpus.jar         the classes (written with ASM)
+//	<out>/droiddoc/          droiddoc-style reference pages
+//	<out>/javadoc/           javadoc-style pages
+//	<out>/src/               the .java sources
+//	<out>/annotations.xml    deprecated members, in the --annotations format
+//
+// Class i is gen.p<i % packages>.C<i>. Classes form inheritance chains of
+// <depth> classes and implement the Listener of their package. Even methods
+// are named alike in every class, so that subclasses override them; odd ones
+// are unique. Chain roots also get <overloads> overloads of "over".
+// The output only depends on the options.
+public class CorpusGenerator {
+
+	int classes = 1000;
+	int packages = 10;
+	int depth = 5;
+	int methods = 10;
+	int overloads = 0;
+	boolean docs = true;
+
+	public static void main (String [] args) throws IOException
+	{
+		CorpusGenerator generator = new CorpusGenerator ();
+		String out = null;
+		boolean valid = true;
+		String usage = "Usage: CorpusGenerator --out=<dir> [--classes=<n>] [--packages=<n>] [--depth=<n>] [--methods=<n>] [--overloads=<n>] [--no-docs]";
+		try {
+			for (String arg : args) {
+				if (arg.startsWith ("--out="))
+					out = arg.substring (6);
+				else if (arg.startsWith ("--classes="))
+					generator.classes = Integer.parseInt (arg.substring (10));
+				else if (arg.startsWith ("--packages="))
+					generator.packages = Integer.parseInt (arg.substring (11));
+				else if (arg.startsWith ("--depth="))
+					generator.depth = Integer.parseInt (arg.substring (8));
+				else if (arg.startsWith ("--methods="))
+					generator.methods = Integer.parseInt (arg.substring (10));
+				else if (arg.startsWith ("--overloads="))
+					generator.overloads = Integer.parseInt (arg.substring (12));
+				else if (arg.equals ("--no-docs"))
+					generator.docs = false;
+				else
+					valid = false;
+			}
+		} catch (NumberFormatException e) {
+			valid = false;
+		}
+		if (!valid || out == null || generator.classes < 1 || generator.packages < 1 || generator.depth < 1) {
+			System.err.println (usage);
+			System.exit (1);
+		}
+		generator.generate (new File (out));
+	}
+
+	// The types parameters are made of.
+	static class ParamType {
+		final String desc, signature, source, href, display;
+
+		ParamType (String desc, String signature, String source, String href, String display)
+		{
+			this.desc = desc;
+			this.signature = signature;
+			this.source = source;
+			this.href = href;
+			this.display = display;
+		}
+	}
+
+	// (their erasures differ, so that all sequences of them are distinct descriptors.)
+	static final ParamType [] pool = {
+		new ParamType ("I", "I", "int", "int", "int"),
+		new ParamType ("J", "J", "long", "long", "long"),
+		new ParamType ("Z", "Z", "boolean", "boolean", "boolean"),
+		new ParamType ("Ljava/lang/String;", "Ljava/lang/String;", "String", "java.lang.String", "String"),
+		new ParamType ("[I", "[I", "int[]", "int[]", "int[]"),
+		new ParamType ("Ljava/util/List;", "Ljava/util/List<Ljava/lang/String;>;", "List<String>", "java.util.List<java.lang.String>", "List<String>"),
+		new ParamType ("Ljava/util/Collection;", "Ljava/util/Collection<+Ljava/lang/Number;>;", "Collection<? extends Number>", "java.util.Collection<? extends java.lang.Number>", "Collection<? extends Number>"),
+	};
+
+	// A method (or constructor, named "<init>") of a generated class.
+	static class Member {
+		final String name;
+		final List<ParamType> params;
+
+		Member (String name, List<ParamType> params)
+		{
+			this.name = name;
+			this.params = params;
+		}
+
+		String getDescriptor ()
+		{
+			StringBuilder sb = new StringBuilder ("(");
+			for (ParamType p : params)
+				sb.append (p.desc);
+			return sb.append (")V").toString ();
+		}
+
+		String getSignature ()
+		{
+			boolean generic = false;
+			StringBuilder sb = new StringBuilder ("(");
+			for (ParamType p : params) {
+				sb.append (p.signature);
+				generic |= !p.signature.equals (p.desc);
+			}
+			return generic ? sb.append (")V").toString () : null;
+		}
+	}
+
+	// The n-th sequence of pool types, in bijective numeration: n = 0 is the
+	// empty sequence, then all the sequences of one type, of two types, etc.
+	static List<ParamType> getParams (int n)
+	{
+		List<ParamType> params = new ArrayList<ParamType> ();
+		while (n > 0) {
+			n--;
+			params.add (0, pool [n % pool.length]);
+			n /= pool.length;
+		}
+		return params;
+	}
+
+	String getPackage (int i)
+	{
+		return "gen/p" + (i % packages);
+	}
+
+	String getName (int i)
+	{
+		return getPackage (i) + "/C" + i;
+	}
+
+	String getSuperName (int i)
+	{
+		return i % depth != 0 ? getName (i - 1) : "java/lang/Object";
+	}
+
+	List<Member> getMembers (int i)
+	{
+		List<Member> members = new ArrayList<Member> ();
+		members.add (new Member ("<init>", getParams (0)));
+		members.add (new Member ("<init>", getParams (pool.length + 4)));
+		for (int k = 0; k < methods; k++)
+			members.add (new Member (k % 2 == 0 ? "m" + k : "c" + i + "m" + k, getParams (k + 1)));
+		if (i % depth == 0)
+			for (int k = 1; k <= overloads; k++)
+				members.add (new Member ("over", getParams (k)));
+		members.add (new Member ("onEvent", getParams (pool.length + 4)));
+		return members;
+	}
+
+	public void generate (File out) throws IOException
+	{
+		out.mkdirs ();
+		JarOutputStream jar = new JarOutputStream (new FileOutputStream (new File (out, "corpus.jar")));
+		try {
+			for (int p = 0; p < Math.min (packages, classes); p++)
+				addEntry (jar, "gen/p" + p + "/Listener.class", generateListener (p));
+			for (int i = 0; i < classes; i++)
+				addEntry (jar, getName (i) + ".class", generateClass (i));
+		} finally {
+			jar.close ();
+		}
+		if (!docs)
+			return;
+
+		PrintWriter annotations = open (new File (out, "annotations.xml"));
+		annotations.println ("<deprecated>");
+		for (int p = 0; p < Math.min (packages, classes); p++) {
+			PrintWriter w = open (new File (out, "src/gen/p" + p + "/Listener.java"));
+			w.println ("package gen.p" + p + ";");
+			w.println ();
+			w.println ("public interface Listener {");
+			w.println ("\tvoid onEvent (int arg0, String arg1);");
+			w.println ("}");
+			w.close ();
+		}
+		for (int i = 0; i < classes; i++) {
+			List<Member> members = getMembers (i);
+			writeSource (new File (out, "src/" + getName (i) + ".java"), i, members);
+			writePage (new File (out, "droiddoc/" + getName (i) + ".html"), i, members, false);
+			writePage (new File (out, "javadoc/" + getName (i) + ".html"), i, members, true);
+			if (i % 10 == 0 && methods > 0) {
+				annotations.println ("<file name='" + getName (i) + "'>");
+				annotations.println ("  <method>m0(" + getParams (1).get (0).display + ")</method>");
+				annotations.println ("</file>");
+			}
+		}
+		annotations.println ("</deprecated>");
+		annotations.close ();
+
+		// the scrapers check for these to recognize doc trees.
+		PrintWriter list = open (new File (out, "javadoc/package-list"));
+		for (int p = 0; p < Math.min (packages, classes); p++)
+			list.println ("gen.p" + p);
+		list.close ();
+		PrintWriter index = open (new File (out, "droiddoc/packages.html"));
+		index.println ("<html><body></body></html>");
+		index.close ();
+	}
+
+	static void addEntry (JarOutputStream jar, String name, byte [] bytes) throws IOException
+	{
+		jar.putNextEntry (new JarEntry (name));
+		jar.write (bytes);
+		jar.closeEntry ();
+	}
+
+	static PrintWriter open (File file) throws IOException
+	{
+		file.getParentFile ().mkdirs ();
+		Writer writer = new OutputStreamWriter (new FileOutputStream (file), "UTF-8");
+		return new PrintWriter (writer);
+	}
+
+	byte [] generateListener (int p)
+	{
+		ClassWriter cw = new ClassWriter (0);
+		cw.visit (Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_INTERFACE, "gen/p" + p + "/Listener", null, "java/lang/Object", null);
+		Member onEvent = new Member ("onEvent", getParams (pool.length + 4));
+		cw.visitMethod (Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, onEvent.name, onEvent.getDescriptor (), null, null).visitEnd ();
+		cw.visitEnd ();
+		return cw.toByteArray ();
+	}
+
+	byte [] generateClass (int i)
+	{
+		ClassWriter cw = new ClassWriter (ClassWriter.COMPUTE_MAXS);
+		String name = getName (i);
+		String superName = getSuperName (i);
+		cw.visit (Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, superName, new String [] {getPackage (i) + "/Listener"});
+
+		for (int k = 0; k < methods / 2; k++)
+			cw.visitField (Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "K" + k, "I", null, k).visitEnd ();
+
+		for (Member m : getMembers (i)) {
+			MethodVisitor mv = cw.visitMethod (Opcodes.ACC_PUBLIC, m.name, m.getDescriptor (), m.getSignature (), null);
+			mv.visitCode ();
+			if (m.name.equals ("<init>")) {
+				mv.visitVarInsn (Opcodes.ALOAD, 0);
+				mv.visitMethodInsn (Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+			}
+			mv.visitInsn (Opcodes.RETURN);
+			mv.visitMaxs (0, 0);
+			mv.visitEnd ();
+		}
+
+		// a generic method: <U extends Comparable<U>> U pick (U, List<U>)
+		MethodVisitor mv = cw.visitMethod (Opcodes.ACC_PUBLIC, "pick", "(Ljava/lang/Comparable;Ljava/util/List;)Ljava/lang/Comparable;",
+			"<U::Ljava/lang/Comparable<TU;>;>(TU;Ljava/util/List<TU;>;)TU;", null);
+		mv.visitCode ();
+		mv.visitInsn (Opcodes.ACONST_NULL);
+		mv.visitInsn (Opcodes.ARETURN);
+		mv.visitMaxs (0, 0);
+		mv.visitEnd ();
+
+		cw.visitEnd ();
+		return cw.toByteArray ();
+	}
+
+	static String getSimpleName (String name)
+	{
+		return name.substring (name.lastIndexOf ('/') + 1);
+	}
+
+	void writeSource (File file, int i, List<Member> members) throws IOException
+	{
+		PrintWriter w = open (file);
+		String name = getName (i);
+		w.println ("package " + getPackage (i).replace ('/', '.') + ";");
+		w.println ();
+		w.println ("import java.util.Collection;");
+		w.println ("import java.util.List;");
+		w.println ();
+		String superName = getSuperName (i);
+		w.println ("public class " + getSimpleName (name) + (superName.equals ("java/lang/Object") ? "" : " extends " + superName.replace ('/', '.')) + " implements Listener {");
+		for (int k = 0; k < methods / 2; k++)
+			w.println ("\tpublic static final int K" + k + " = " + k + ";");
+		for (Member m : members) {
+			StringBuilder params = new StringBuilder ();
+			for (int j = 0; j < m.params.size (); j++)
+				params.append (j > 0 ? ", " : "").append (m.params.get (j).source).append (" arg").append (j);
+			boolean ctor = m.name.equals ("<init>");
+			w.println ("\tpublic " + (ctor ? getSimpleName (name) : "void " + m.name) + " (" + params + ") {}");
+		}
+		w.println ("\tpublic <U extends Comparable<U>> U pick (U arg0, List<U> arg1) { return null; }");
+		w.println ("}");
+		w.close ();
+	}
+
+	void writePage (File file, int i, List<Member> members, boolean javadoc) throws IOException
+	{
+		PrintWriter w = open (file);
+		String path = getName (i) + ".html";
+		String className = getSimpleName (getName (i));
+		w.println (javadoc ? "<HTML><BODY><TABLE>" : "<html><body><table>");
+		for (Member m : members) {
+			String name = m.name.equals ("<init>") ? className : m.name;
+			StringBuilder href = new StringBuilder ();
+			StringBuilder text = new StringBuilder ();
+			for (int j = 0; j < m.params.size (); j++) {
+				ParamType p = m.params.get (j);
+				href.append (j > 0 ? ", " : "").append (p.href);
+				text.append (j > 0 ? ", " : "").append (javadoc ? p.href : p.display).append (javadoc ? "&nbsp;" : " ").append ("arg").append (j);
+			}
+			writeLine (w, path, name, href.toString (), text.toString (), javadoc);
+		}
+		writeLine (w, path, "pick", "U, java.util.List<U>", javadoc ? "U&nbsp;arg0, java.util.List<U>&nbsp;arg1" : "U arg0, List<U> arg1", javadoc);
+		w.println (javadoc ? "</TABLE></BODY></HTML>" : "</table></body></html>");
+		w.close ();
+	}
+
+	static void writeLine (PrintWriter w, String path, String name, String href, String text, boolean javadoc)
+	{
+		if (javadoc)
+			w.println ("<TD><CODE><B><A HREF=\"../../" + path + "#" + name + "(" + href + ")\">" + name + "</A></B>(" + text + ")</CODE>");
+		else
+			w.println ("<tr><td><nobr><span class=\"sympad\"><a href=\"../../../reference/" + path + "#" + name + "(" + href + ")\">" + name + "</a></span>(" + text + ")</nobr></td></tr>");
+	}
+}
@@ -0,0 +1,91 @@
+package jar2xml.bench;
+
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import jar2xml.ClassSkeleton;
+import jar2xml.JavaArchive;
+import org.objectweb.asm.ClassReader;
+
+// The inputs of the benchmarks: the files under fixtures/, and fixtures.jar,
+// built from fixtures/src by the Makefile. The locations can be overridden
+// with -Djar2xml.bench.fixtures=<dir> and -Djar2xml.bench.jar=<file>.
+public class Fixtures {
+
+	public static final String dir = System.getProperty ("jar2xml.bench.fixtures", "fixtures");
+	public static final String jar = System.getProperty ("jar2xml.bench.jar", "obj/fixtures.jar");
+
+	public static File get (String name)
+	{
+		return new File (dir, name);
+	}
+
+	public static JavaArchive openArchive (boolean asm) throws Exception
+	{
+		JavaArchive archive = new JavaArchive (Collections.singletonList (jar), Collections.<String>emptyList ());
+		archive.setAsmEngine (asm);
+		return archive;
+	}
+
+	// A parameter names lookup, as JavaClass makes them for a constructor or method.
+	public static class Lookup {
+		public final ClassSkeleton declarer;
+		public final String name;
+		public final Type [] types;
+		public final boolean isVarArgs;
+
+		Lookup (ClassSkeleton declarer, String name, Type [] types, boolean isVarArgs)
+		{
+			this.declarer = declarer;
+			this.name = name;
+			this.types = types;
+			this.isVarArgs = isVarArgs;
+		}
+	}
+
+	// The lookups for the public constructors and methods of the fixture classes.
+	public static List<Lookup> getLookups () throws Exception
+	{
+		List<Lookup> lookups = new ArrayList<Lookup> ();
+		ClassLoader loader = new URLClassLoader (new URL [] {new File (jar).toURI ().toURL ()}, Fixtures.class.getClassLoader ());
+		JarFile file = new JarFile (jar);
+		try {
+			for (Enumeration<JarEntry> e = file.entries (); e.hasMoreElements ();) {
+				JarEntry entry = e.nextElement ();
+				String name = entry.getName ();
+				if (!name.endsWith (".class"))
+					continue;
+				ClassSkeleton skeleton;
+				InputStream stream = file.getInputStream (entry);
+				try {
+					skeleton = ClassSkeleton.read (new ClassReader (stream));
+				} finally {
+					stream.close ();
+				}
+				Class c = loader.loadClass (name.substring (0, name.length () - 6).replace ('/', '.'));
+				String className = c.getName ().substring (c.getPackage ().getName ().length () + 1).replace ('$', '.');
+				for (Constructor ctor : c.getDeclaredConstructors ())
+					if (!Modifier.isPrivate (ctor.getModifiers ()))
+						lookups.add (new Lookup (skeleton, className, ctor.getGenericParameterTypes (), ctor.isVarArgs ()));
+				for (Method method : c.getDeclaredMethods ())
+					if (!Modifier.isPrivate (method.getModifiers ()) && !method.isSynthetic ())
+						lookups.add (new Lookup (skeleton, method.getName (), method.getGenericParameterTypes (), method.isVarArgs ()));
+			}
+		} finally {
+			file.close ();
+		}
+		return lookups;
+	}
+}
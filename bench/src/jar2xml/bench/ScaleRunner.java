@@ -0,0 +1,26 @@
+package jar2xml.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import jar2xml.Start;
+
+// Runs jar2xml with the given arguments, then reports the wall time and the
+// peak heap usage on a "scale-result: <ms> <bytes>" line. The peak is the sum
+// of the peaks of the heap pools (an upper bound of the actual peak).
+// Start.main () exits on failure, with jar2xml's status.
+public class ScaleRunner {
+
+	public static void main (String [] args)
+	{
+		long start = System.nanoTime ();
+		Start.main (args);
+		long elapsed = (System.nanoTime () - start) / 1000000;
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans ())
+			if (pool.getType () == MemoryType.HEAP)
+				peak += pool.getPeakUsage ().getUsed ();
+		System.out.println ("scale-result: " + elapsed + " " + peak);
+	}
+}
@@ -0,0 +1,141 @@
+package jar2xml.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Runs jar2xml on generated corpora (see CorpusGenerator) with a fixed heap,
+// and fails when a run fails or exceeds its wall time or peak heap limit.
+//
+// Each line of the suite file is a case:
+//
+//	<name> <-Xmx> <max seconds> <max peak MB> <generator options> -- <jar2xml options>
+//
+// "@" in jar2xml options stands for the corpus directory; --jar and --out
+// are added. Corpora are kept in <work>/<name> and only generated again when
+// the generator options change.
+public class ScaleSuite {
+
+	public static void main (String [] args) throws Exception
+	{
+		if (args.length != 2) {
+			System.err.println ("Usage: ScaleSuite <suite file> <work dir>");
+			System.exit (1);
+		}
+		File work = new File (args [1]);
+		int failures = 0;
+		int cases = 0;
+		BufferedReader reader = new BufferedReader (new InputStreamReader (new FileInputStream (args [0]), "UTF-8"));
+		try {
+			for (String line = reader.readLine (); line != null; line = reader.readLine ()) {
+				line = line.trim ();
+				if (line.length () == 0 || line.startsWith ("#"))
+					continue;
+				cases++;
+				if (!run (line.split ("\\s+"), work))
+					failures++;
+			}
+		} finally {
+			reader.close ();
+		}
+		System.out.println (cases + " cases, " + failures + " failed");
+		System.exit (failures > 0 ? 1 : 0);
+	}
+
+	static boolean run (String [] fields, File work) throws Exception
+	{
+		String name = fields [0];
+		String heap = fields [1];
+		long maxMillis = Long.parseLong (fields [2]) * 1000;
+		long maxBytes = Long.parseLong (fields [3]) << 20;
+		int separator = Arrays.asList (fields).indexOf ("--");
+		if (separator < 0)
+			throw new IllegalArgumentException ("no -- in case " + name);
+		List<String> generatorArgs = new ArrayList<String> (Arrays.asList (fields).subList (4, separator));
+
+		File dir = new File (work, name);
+		generatorArgs.add ("--out=" + dir.getPath ());
+		File stamp = new File (dir, "generator-options");
+		String options = generatorArgs.toString ();
+		if (!stamp.isFile () || !options.equals (read (stamp))) {
+			System.out.println (name + ": generating " + options);
+			delete (dir);
+			CorpusGenerator.main (generatorArgs.toArray (new String [generatorArgs.size ()]));
+			write (stamp, options);
+		}
+
+		List<String> command = new ArrayList<String> ();
+		command.add (new File (System.getProperty ("java.home"), "bin/java").getPath ());
+		command.add ("-Xmx" + heap);
+		command.add ("-cp");
+		command.add (System.getProperty ("java.class.path"));
+		command.add (ScaleRunner.class.getName ());
+		command.add ("--jar=" + new File (dir, "corpus.jar").getPath ());
+		command.add ("--out=" + new File (dir, "api.xml").getPath ());
+		for (int i = separator + 1; i < fields.length; i++)
+			command.add (fields [i].replace ("@", dir.getPath ()));
+
+		File log = new File (dir, "jar2xml.log");
+		ProcessBuilder builder = new ProcessBuilder (command);
+		builder.redirectErrorStream (true);
+		builder.redirectOutput (log);
+		int status = builder.start ().waitFor ();
+
+		String result = null;
+		BufferedReader reader = new BufferedReader (new InputStreamReader (new FileInputStream (log), "UTF-8"));
+		try {
+			for (String line = reader.readLine (); line != null; line = reader.readLine ())
+				if (line.startsWith ("scale-result: "))
+					result = line;
+		} finally {
+			reader.close ();
+		}
+		if (status != 0 || result == null) {
+			System.out.println (name + ": FAILED, jar2xml exited with " + status + " (see " + log + ")");
+			return false;
+		}
+		String [] values = result.split (" ");
+		long millis = Long.parseLong (values [1]);
+		long bytes = Long.parseLong (values [2]);
+		boolean ok = millis <= maxMillis && bytes <= maxBytes;
+		System.out.println (name + ": " + (ok ? "ok" : "FAILED") + ", " + millis + " ms (max " + maxMillis + "), peak heap " + (bytes >> 20) + " MB (max " + (maxBytes >> 20) + ")");
+		return ok;
+	}
+
+	static String read (File file) throws IOException
+	{
+		BufferedReader reader = new BufferedReader (new InputStreamReader (new FileInputStream (file), "UTF-8"));
+		try {
+			return reader.readLine ();
+		} finally {
+			reader.close ();
+		}
+	}
+
+	static void write (File file, String text) throws IOException
+	{
+		Writer writer = new OutputStreamWriter (new FileOutputStream (file), "UTF-8");
+		try {
+			writer.write (text + "\n");
+		} finally {
+			writer.close ();
+		}
+	}
+
+	static void delete (File file)
+	{
+		File [] children = file.listFiles ();
+		if (children != null)
+			for (File child : children)
+				delete (child);
+		file.delete ();
+	}
+}
@@ -0,0 +1,61 @@
+package jar2xml.bench;
+
+import java.util.List;
+
+import jar2xml.IDocScraper;
+import jar2xml.scrapers.DroidDocScraper;
+import jar2xml.scrapers.JavaDocScraper;
+import jar2xml.scrapers.source.SourcesScraper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+// IDocScraper.getParameterNames () for every constructor and method of the
+// fixtures: "warm" reuses one scraper (and the pages or sources it has
+// indexed), "cold" starts from a new scraper, as the first job of a run does.
+@State (Scope.Benchmark)
+public class ScraperBenchmark {
+
+	@Param ({"droiddoc", "javadoc", "sources"})
+	public String kind;
+
+	List<Fixtures.Lookup> lookups;
+	IDocScraper scraper;
+
+	@Setup
+	public void setUp () throws Exception
+	{
+		lookups = Fixtures.getLookups ();
+		scraper = create ();
+	}
+
+	IDocScraper create () throws Exception
+	{
+		if (kind.equals ("droiddoc"))
+			return new DroidDocScraper (Fixtures.get ("droiddoc"));
+		if (kind.equals ("javadoc"))
+			return new JavaDocScraper (Fixtures.get ("javadoc"));
+		return new SourcesScraper (Fixtures.get ("src"));
+	}
+
+	void lookUp (IDocScraper s, Blackhole bh)
+	{
+		for (Fixtures.Lookup l : lookups)
+			bh.consume (s.getParameterNames (l.declarer, l.name, l.types, l.isVarArgs));
+	}
+
+	@Benchmark
+	public void warm (Blackhole bh)
+	{
+		lookUp (scraper, bh);
+	}
+
+	@Benchmark
+	public void cold (Blackhole bh) throws Exception
+	{
+		lookUp (create (), bh);
+	}
+}
@@ -0,0 +1,37 @@
+package jar2xml.bench;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import jar2xml.JavaClass;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+// JavaClass.getGenericTypeName () over the parameter types of the fixtures
+// (classes, arrays, parameterized types, type variables and wildcards).
+@State (Scope.Benchmark)
+public class TypeNameBenchmark {
+
+	Type [] types;
+
+	@Setup
+	public void setUp () throws Exception
+	{
+		List<Type> list = new ArrayList<Type> ();
+		for (Fixtures.Lookup lookup : Fixtures.getLookups ())
+			for (Type t : lookup.types)
+				list.add (t);
+		types = list.toArray (new Type [list.size ()]);
+	}
+
+	@Benchmark
+	public void getGenericTypeName (Blackhole bh)
+	{
+		for (Type t : types)
+			bh.consume (JavaClass.getGenericTypeName (t));
+	}
+}
@@ -0,0 +1,65 @@
+package jar2xml.bench;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import jar2xml.ApiWriter;
+import jar2xml.JavaArchive;
+import jar2xml.JavaClass;
+import jar2xml.JavaPackage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+// The serialization done by Start: writing the elements of all the fixture
+// classes (built once, beforehand) to an api XML file.
+@State (Scope.Benchmark)
+public class WriterBenchmark {
+
+	List<Element> packages = new ArrayList<Element> ();
+	File out;
+
+	@Setup
+	public void setUp () throws Exception
+	{
+		out = File.createTempFile ("jar2xml-bench", ".xml");
+		Document doc = DocumentBuilderFactory.newInstance ().newDocumentBuilder ().newDocument ();
+		JavaArchive archive = Fixtures.openArchive (true);
+		try {
+			for (JavaPackage pkg : archive.getPackages ()) {
+				Element e = doc.createElement ("package");
+				e.setAttribute ("name", pkg.getName ());
+				for (JavaClass cls : pkg.getClasses ())
+					cls.appendToDocument (doc, e);
+				packages.add (e);
+			}
+		} finally {
+			archive.close ();
+		}
+	}
+
+	@TearDown
+	public void tearDown ()
+	{
+		out.delete ();
+	}
+
+	@Benchmark
+	public void write () throws Exception
+	{
+		ApiWriter writer = new ApiWriter (out.getPath ());
+		Element root = writer.getDocument ().createElement ("api");
+		writer.startElement (root);
+		for (Element e : packages)
+			writer.writeElement (e);
+		writer.endElement (root);
+		writer.close ();
+	}
+}
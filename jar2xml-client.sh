@@ -0,0 +1,28 @@
+#!/bin/bash
+# Drop-in replacement for "java -jar jar2xml.jar <args>": runs the job in a
+# jar2xml daemon (java -jar jar2xml.jar --daemon=<port>) listening on
+# $JAR2XML_PORT, or in a new process when there is none.
+
+JAR2XML_JAR=${JAR2XML_JAR:-$(dirname "$0")/jar2xml.jar}
+
+# the daemon only serves the clients that can read its key.
+key_file=$HOME/.jar2xml/daemon-$JAR2XML_PORT.key
+if [ -z "$JAR2XML_PORT" ] || ! { read -r key < "$key_file"; } 2>/dev/null || ! { exec 3<>/dev/tcp/127.0.0.1/$JAR2XML_PORT; } 2>/dev/null; then
+	exec java -jar "$JAR2XML_JAR" "$@"
+fi
+
+request=$(pwd)
+for arg in "$@"; do
+	request="$request	$arg"
+done
+printf '%s\n%s\n' "$key" "$request" >&3
+
+while IFS= read -r line <&3; do
+	case "$line" in
+	"O "*) printf '%s\n' "${line#O }" ;;
+	"E "*) printf '%s\n' "${line#E }" >&2 ;;
+	"exit "*) exit ${line#exit } ;;
+	esac
+done
+echo "jar2xml-client: lost connection to the daemon" >&2
+exit 1
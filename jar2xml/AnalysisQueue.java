@@ -0,0 +1,103 @@
+/* 
+ *  Copyright (c) 2011 Xamarin Inc.
+ * 
+ *  Permission is hereby granted, free of charge, to any person 
+ *  obtaining a copy of this software and associated documentation 
+ *  files (the "Software"), to deal in the Software without restriction, 
+ *  including without limitation the rights to use, copy, modify, merge, 
+ *  publish, distribute, sublicense, and/or sell copies of the Software, 
+ *  and to permit persons to whom the Software is furnished to do so, 
+ *  subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be 
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES 
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS 
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN 
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE 
+ *  SOFTWARE.
+ */
+
+package jar2xml;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.w3c.dom.Element;
+
+// Analyses classes on a thread pool ahead of the writer.
+//
+// Classes are scheduled in output order (sorted packages, then sorted classes)
+// and handed back in that very order, so the output does not depend on the
+// number of threads. At most "window" classes are analysed ahead of the one
+// being written, which bounds the number of pending elements in memory.
+public class AnalysisQueue {
+
+	ExecutorService pool;
+	int window;
+	List<JavaClass> classes = new ArrayList<JavaClass> ();
+	int next;
+	Queue<Future<Element>> pending = new ArrayDeque<Future<Element>> ();
+
+	static final ThreadLocal<DocumentBuilder> builders = new ThreadLocal<DocumentBuilder> () {
+		protected DocumentBuilder initialValue ()
+		{
+			try {
+				return DocumentBuilderFactory.newInstance ().newDocumentBuilder ();
+			} catch (Exception e) {
+				throw new RuntimeException (e);
+			}
+		}
+	};
+
+	public AnalysisQueue (List<JavaPackage> packages, ExecutorService pool, int window)
+	{
+		this.pool = pool;
+		this.window = window;
+		for (JavaPackage pkg : packages) {
+			// obfuscation is decided per package and must be known before analysis.
+			pkg.sortClasses ();
+			classes.addAll (pkg.getClasses ());
+		}
+		fill ();
+	}
+
+	void fill ()
+	{
+		while (next < classes.size () && pending.size () < window) {
+			final JavaClass c = classes.get (next++);
+			pending.add (pool.submit (new Callable<Element> () {
+				public Element call ()
+				{
+					// DOM documents are not thread safe, so each class gets its own.
+					return c.buildElement (builders.get ().newDocument ());
+				}
+			}));
+		}
+	}
+
+	public Element take (JavaClass c)
+	{
+		if (classes.get (next - pending.size ()) != c)
+			throw new IllegalStateException ("internal error: classes must be taken in analysis order");
+		Future<Element> f = pending.remove ();
+		fill ();
+		try {
+			return f.get ();
+		} catch (Exception e) {
+			throw new RuntimeException (e);
+		}
+	}
+}
@@ -0,0 +1,354 @@
+/* 
+ *  Copyright (c) 2011 Xamarin Inc.
+ * 
+ *  Permission is hereby granted, free of charge, to any person 
+ *  obtaining a copy of this software and associated documentation 
+ *  files (the "Software"), to deal in the Software without restriction, 
+ *  including without limitation the rights to use, copy, modify, merge, 
+ *  publish, distribute, sublicense, and/or sell copies of the Software, 
+ *  and to permit persons to whom the Software is furnished to do so, 
+ *  subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be 
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES 
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS 
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN 
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE 
+ *  SOFTWARE.
+ */
+
+package jar2xml;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.signature.SignatureReader;
+import org.objectweb.asm.signature.SignatureVisitor;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+// Stores the element of each analysed class in a directory, so that a later
+// run only analyses the classes that changed.
+//
+// An entry is keyed by a digest of everything its element depends on:
+// - the class itself (the CRC and size recorded in the jar),
+// - the classes it refers to in its API (member types and exceptions, type
+//   arguments and bounds of the generic signatures included) and all its
+//   supertypes, when they come from the jars or the --ref jars (other classes
+//   come from the running JVM, whose version is part of the key),
+// - the obfuscation flag, which depends on the other classes of the package,
+// - the doc page or source file each doc scraper reads for the class (see
+//   IDocVersion),
+// - the options, the other inputs (the annotations and doc index files,
+//   by names, sizes and timestamps) and the jar2xml classes themselves.
+//
+// Entries are never updated in place: a changed input gives a new key, and
+// files are written to a temporary name first, so that a cache directory can
+// be shared by concurrent runs. Old entries are left behind; the directory can
+// be removed at any time.
+public class ApiCache {
+
+	// Bump whenever the format of the entries changes.
+	static final String FORMAT = "jar2xml-cache-1";
+
+	File dir;
+	byte [] salt;
+	RefIndex refIndex;
+	List<JarReader> refs;
+	ClassResolver resolver;
+	List<IDocScraper> scrapers = new ArrayList<IDocScraper> ();
+	Map<String,String> hashes = new ConcurrentHashMap<String,String> ();
+
+	public ApiCache (File dir, List<String> settings, List<File> inputs) throws Exception
+	{
+		this.dir = dir;
+		MessageDigest md = MessageDigest.getInstance ("SHA-1");
+		update (md, FORMAT);
+		update (md, System.getProperty ("java.version"));
+		for (String s : settings)
+			update (md, s);
+		for (File f : inputs)
+			updateTree (md, f.getAbsoluteFile ());
+		URL tool = ApiCache.class.getProtectionDomain ().getCodeSource ().getLocation ();
+		updateTree (md, new File (tool.toURI ()));
+		salt = md.digest ();
+	}
+
+	public void setReferences (Map<String,ClassSkeleton> classes, RefIndex refIndex, List<JarReader> refs, ClassStore store)
+	{
+		this.refIndex = refIndex;
+		this.refs = refs;
+		resolver = new ClassResolver (classes, refIndex, refs, store);
+	}
+
+	// The scrapers the classes look their docs up in, in their order.
+	public void setDocScrapers (List<IDocScraper> scrapers)
+	{
+		this.scrapers = scrapers;
+	}
+
+	// Called for each class of the analysed jars, with ClassStore.getFingerprint ().
+	public void addClass (String name, String fingerprint)
+	{
+		hashes.put (name, fingerprint != null ? fingerprint : unknown);
+	}
+
+	// classes that depend on a class without a fingerprint are not cached.
+	static final String unknown = "!";
+
+	static void update (MessageDigest md, String s)
+	{
+		try {
+			md.update (s.getBytes ("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException (e);
+		}
+		md.update ((byte) 0);
+	}
+
+	static void updateTree (MessageDigest md, File f)
+	{
+		update (md, f.getPath ());
+		if (f.isDirectory ()) {
+			String [] names = f.list ();
+			if (names == null)
+				return;
+			Arrays.sort (names);
+			for (String name : names)
+				updateTree (md, new File (f, name));
+		} else {
+			update (md, f.length () + ":" + f.lastModified ());
+		}
+	}
+
+	static final char [] hex_digits = "0123456789abcdef".toCharArray ();
+
+	static String toHex (byte [] bytes)
+	{
+		char [] chars = new char [bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars [i * 2] = hex_digits [(bytes [i] >> 4) & 0xF];
+			chars [i * 2 + 1] = hex_digits [bytes [i] & 0xF];
+		}
+		return new String (chars);
+	}
+
+	String getClassHash (String name)
+	{
+		String hash = hashes.get (name);
+		if (hash != null)
+			return hash;
+		hash = refIndex != null ? refIndex.getFingerprint (name) : null;
+		if (hash != null) {
+			hashes.put (name, hash);
+			return hash;
+		}
+		hash = "-";
+		for (JarReader ref : refs) {
+			JarReader.Entry entry = ref.getEntry (name + ".class");
+			if (entry != null) {
+				String fingerprint = ClassStore.getFingerprint (entry);
+				hash = fingerprint != null ? fingerprint : unknown;
+				break;
+			}
+		}
+		hashes.put (name, hash);
+		return hash;
+	}
+
+	void addType (Set<String> names, Type t)
+	{
+		if (t.getSort () == Type.ARRAY)
+			t = t.getElementType ();
+		if (t.getSort () == Type.OBJECT)
+			addSupertypes (names, t.getInternalName ());
+	}
+
+	void addSupertypes (Set<String> names, String name)
+	{
+		if (name == null || !names.add (name))
+			return;
+		ClassSkeleton c = resolver.get (name);
+		if (c == null)
+			return;
+		addSupertypes (names, c.superName);
+		for (String i : c.interfaces)
+			addSupertypes (names, i);
+	}
+
+	// The classes named in a generic signature, which the descriptors erase.
+	void addSignature (final Set<String> names, String signature, boolean type)
+	{
+		if (signature == null)
+			return;
+		SignatureVisitor visitor = new SignatureVisitor (Opcodes.ASM5) {
+			public void visitClassType (String name)
+			{
+				addSupertypes (names, name);
+			}
+		};
+		if (type)
+			new SignatureReader (signature).acceptType (visitor);
+		else
+			new SignatureReader (signature).accept (visitor);
+	}
+
+	// Returns null if the class cannot be cached.
+	public String getKey (JavaClass c)
+	{
+		ClassSkeleton asm = c.asm;
+		Set<String> names = new TreeSet<String> ();
+		addSupertypes (names, asm.name);
+		if (asm.declaringClass != null)
+			addSupertypes (names, asm.declaringClass);
+		addSignature (names, asm.signature, false);
+		for (ClassSkeleton.Method m : asm.methods) {
+			for (Type t : Type.getArgumentTypes (m.desc))
+				addType (names, t);
+			addType (names, Type.getReturnType (m.desc));
+			for (String e : m.exceptions)
+				addSupertypes (names, e);
+			addSignature (names, m.signature, false);
+		}
+		for (ClassSkeleton.Field f : asm.fields) {
+			addType (names, Type.getType (f.desc));
+			addSignature (names, f.signature, true);
+		}
+
+		try {
+			MessageDigest md = MessageDigest.getInstance ("SHA-1");
+			md.update (salt);
+			update (md, asm.name);
+			update (md, String.valueOf (c.isObfuscated ()));
+			for (IDocScraper s : scrapers)
+				if (s instanceof IDocVersion)
+					update (md, String.valueOf (((IDocVersion) s).getDocVersion (asm)));
+			for (String name : names) {
+				String hash = getClassHash (name);
+				if (hash == unknown)
+					return null;
+				update (md, name);
+				update (md, hash);
+			}
+			return toHex (md.digest ());
+		} catch (Exception e) {
+			throw new RuntimeException (e);
+		}
+	}
+
+	File getFile (String key)
+	{
+		return new File (new File (dir, key.substring (0, 2)), key.substring (2) + ".bin");
+	}
+
+	// Entries hold the element tree in a simple binary form, which is much
+	// cheaper to turn back into DOM nodes than XML text.
+	static final int ELEMENT = 1, TEXT = 2;
+
+	static void writeNode (DataOutputStream out, Node n) throws IOException
+	{
+		if (n instanceof Element) {
+			Element e = (Element) n;
+			out.writeByte (ELEMENT);
+			out.writeUTF (e.getTagName ());
+			NamedNodeMap attrs = e.getAttributes ();
+			out.writeShort (attrs.getLength ());
+			for (int i = 0; i < attrs.getLength (); i++) {
+				Attr a = (Attr) attrs.item (i);
+				out.writeUTF (a.getName ());
+				out.writeUTF (a.getValue ());
+			}
+			NodeList children = e.getChildNodes ();
+			out.writeInt (children.getLength ());
+			for (int i = 0; i < children.getLength (); i++)
+				writeNode (out, children.item (i));
+		} else {
+			out.writeByte (TEXT);
+			out.writeUTF (n.getNodeValue ());
+		}
+	}
+
+	static Node readNode (DataInputStream in, Document doc) throws IOException
+	{
+		int kind = in.readByte ();
+		if (kind == TEXT)
+			return doc.createTextNode (in.readUTF ());
+		if (kind != ELEMENT)
+			throw new IOException ("corrupt cache entry");
+		Element e = doc.createElement (in.readUTF ());
+		for (int i = in.readShort (); i > 0; i--)
+			e.setAttribute (in.readUTF (), in.readUTF ());
+		for (int i = in.readInt (); i > 0; i--)
+			e.appendChild (readNode (in, doc));
+		return e;
+	}
+
+	// Returns the cached element created on doc, or null.
+	public Element load (String key, Document doc)
+	{
+		File file = getFile (key);
+		if (!file.exists ())
+			return null;
+		try {
+			DataInputStream in = new DataInputStream (new BufferedInputStream (new FileInputStream (file)));
+			try {
+				return (Element) readNode (in, doc);
+			} finally {
+				in.close ();
+			}
+		} catch (Exception e) {
+			System.err.println ("warning J2X7001: Couldn't read cache entry " + file + " : " + e);
+			return null;
+		}
+	}
+
+	public void store (String key, Element e)
+	{
+		File file = getFile (key);
+		File tmp = null;
+		try {
+			file.getParentFile ().mkdirs ();
+			tmp = File.createTempFile (key, ".tmp", file.getParentFile ());
+			DataOutputStream out = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (tmp)));
+			try {
+				writeNode (out, e);
+			} finally {
+				out.close ();
+			}
+			Files.move (tmp.toPath (), file.toPath (), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (Exception ex) {
+			if (tmp != null)
+				tmp.delete ();
+			System.err.println ("warning J2X7002: Couldn't write cache entry " + file + " : " + ex);
+		}
+	}
+}
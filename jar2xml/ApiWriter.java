@@ -0,0 +1,156 @@
+/* 
+ *  Copyright (c) 2011 Xamarin Inc.
+ * 
+ *  Permission is hereby granted, free of charge, to any person 
+ *  obtaining a copy of this software and associated documentation 
+ *  files (the "Software"), to deal in the Software without restriction, 
+ *  including without limitation the rights to use, copy, modify, merge, 
+ *  publish, distribute, sublicense, and/or sell copies of the Software, 
+ *  and to permit persons to whom the Software is furnished to do so, 
+ *  subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be 
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES 
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS 
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN 
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE 
+ *  SOFTWARE.
+ */
+
+package jar2xml;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+// Streams the API description to the output file.
+//
+// Elements are still built as DOM nodes (on a scratch document that never
+// holds them), but each one is serialized as soon as it is complete, through
+// the same indenting serializer that used to format the whole document. The
+// output is hence identical, while only the element being written is in memory.
+public class ApiWriter {
+
+	String path;
+	Document doc;
+	Writer writer;
+	TransformerHandler handler;
+	RunStats stats = RunStats.none;
+
+	public ApiWriter (String path) throws Exception
+	{
+		this.path = path;
+		doc = DocumentBuilderFactory.newInstance ().newDocumentBuilder ().newDocument ();
+
+		SAXTransformerFactory transformer_factory = (SAXTransformerFactory) TransformerFactory.newInstance ();
+		handler = transformer_factory.newTransformerHandler ();
+		Transformer transformer = handler.getTransformer ();
+		transformer.setOutputProperty (OutputKeys.INDENT, "yes");
+		// DOMSource used to report the (default) standalone value of the document.
+		transformer.setOutputProperty (OutputKeys.STANDALONE, "no");
+		writer = new OutputStreamWriter (new FileOutputStream (path), "UTF-8");
+		handler.setResult (new StreamResult (writer));
+		handler.startDocument ();
+	}
+
+	public void setStats (RunStats stats)
+	{
+		this.stats = stats;
+	}
+
+	// The document to create elements with. Elements are never appended to it.
+	public Document getDocument ()
+	{
+		return doc;
+	}
+
+	public void startElement (Element e) throws SAXException
+	{
+		AttributesImpl attrs = new AttributesImpl ();
+		NamedNodeMap map = e.getAttributes ();
+		for (int i = 0; i < map.getLength (); i++) {
+			Attr a = (Attr) map.item (i);
+			attrs.addAttribute ("", a.getName (), a.getName (), "CDATA", a.getValue ());
+		}
+		handler.startElement ("", e.getTagName (), e.getTagName (), attrs);
+	}
+
+	public void endElement (Element e) throws SAXException
+	{
+		handler.endElement ("", e.getTagName (), e.getTagName ());
+	}
+
+	public void writeElement (Element e) throws SAXException
+	{
+		RunStats.Span span = stats.begin ("write");
+		Events.ElementWrite event = new Events.ElementWrite ();
+		event.begin ();
+		write (e);
+		span.end ();
+		if (event.shouldCommit ()) {
+			event.name = e.getAttribute ("name");
+			event.commit ();
+		}
+	}
+
+	void write (Element e) throws SAXException
+	{
+		startElement (e);
+		for (Node n = e.getFirstChild (); n != null; n = n.getNextSibling ()) {
+			if (n instanceof Element)
+				write ((Element) n);
+			else {
+				String text = n.getNodeValue ();
+				handler.characters (text.toCharArray (), 0, text.length ());
+			}
+		}
+		endElement (e);
+	}
+
+	public void close () throws SAXException, IOException
+	{
+		RunStats.Span span = stats.begin ("write");
+		Events.OutputClose event = new Events.OutputClose ();
+		event.begin ();
+		handler.endDocument ();
+		writer.close ();
+		span.end ();
+		if (event.shouldCommit ()) {
+			event.path = path;
+			event.size = new File (path).length ();
+			event.commit ();
+		}
+	}
+
+	// Closes the file without finishing the document, as after a failed run. Does nothing after close.
+	public void abort ()
+	{
+		try {
+			writer.close ();
+		} catch (IOException e) {
+		}
+	}
+}
@@ -0,0 +1,443 @@
+/* 
+ *  Copyright (c) 2011 Xamarin Inc.
+ * 
+ *  Permission is hereby granted, free of charge, to any person 
+ *  obtaining a copy of this software and associated documentation 
+ *  files (the "Software"), to deal in the Software without restriction, 
+ *  including without limitation the rights to use, copy, modify, merge, 
+ *  publish, distribute, sublicense, and/or sell copies of the Software, 
+ *  and to permit persons to whom the Software is furnished to do so, 
+ *  subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be 
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES 
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS 
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN 
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE 
+ *  SOFTWARE.
+ */
+
+package jar2xml;
+
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.objectweb.asm.Opcodes;
+
+// A JavaClass that is described from its ClassSkeleton alone.
+//
+// This produces the same elements as the reflection based JavaClass, but
+// never loads (or initializes) the class, so it neither needs the
+// dependencies of the jar nor runs any of its code. Types are represented by
+// AsmType and the class hierarchy is looked up through the ClassResolver.
+public class AsmJavaClass extends JavaClass {
+
+	ClassResolver resolver;
+	// parsed once per method, so that the names of the types are rendered once too.
+	Map<ClassSkeleton.Method,Type []> parameterTypes = new IdentityHashMap<ClassSkeleton.Method,Type []> ();
+	Map<ClassSkeleton.Method,Type> returnTypes = new IdentityHashMap<ClassSkeleton.Method,Type> ();
+
+	public AsmJavaClass (ClassSkeleton asm, JavaArchive archive)
+	{
+		super (asm, archive);
+		this.resolver = archive.getResolver ();
+	}
+
+	org.objectweb.asm.Type getAsmType ()
+	{
+		return org.objectweb.asm.Type.getObjectType (asm.name);
+	}
+
+	// Same as JavaClass.getClassName (Class, boolean). Results are interned as they are compared by reference.
+	static String getClassName (org.objectweb.asm.Type t, boolean isFullname)
+	{
+		if (t.getSort () == org.objectweb.asm.Type.ARRAY) {
+			StringBuilder sb = new StringBuilder (getClassName (t.getElementType (), isFullname));
+			for (int i = 0; i < t.getDimensions (); i++)
+				sb.append ("[]");
+			return sb.toString ().intern ();
+		}
+
+		String qualname = t.getClassName ();
+		String basename = isFullname ? qualname : qualname.substring (qualname.lastIndexOf ('.') + 1);
+		return basename.replace ("$", ".").intern ();
+	}
+
+	// Same as Class.getSimpleName ().
+	String getSimpleName (org.objectweb.asm.Type t)
+	{
+		if (t.getSort () == org.objectweb.asm.Type.ARRAY) {
+			StringBuilder sb = new StringBuilder (getSimpleName (t.getElementType ()));
+			for (int i = 0; i < t.getDimensions (); i++)
+				sb.append ("[]");
+			return sb.toString ();
+		}
+		if (t.getSort () == org.objectweb.asm.Type.OBJECT) {
+			ClassSkeleton node = resolver.get (t.getInternalName ());
+			if (node != null)
+				return node.simpleName == null ? "" : node.simpleName;
+		}
+		String name = t.getClassName ();
+		return name.substring (name.lastIndexOf ('.') + 1);
+	}
+
+	synchronized Type [] getParameterTypes (ClassSkeleton.Method m)
+	{
+		Type [] types = parameterTypes.get (m);
+		if (types != null)
+			return types;
+		if (m.signature != null)
+			types = AsmType.parseMethodSignature (m.signature, resolver).parameterTypes.toArray (new Type [0]);
+		else {
+			org.objectweb.asm.Type [] args = org.objectweb.asm.Type.getArgumentTypes (m.desc);
+			types = new Type [args.length];
+			for (int i = 0; i < args.length; i++)
+				types [i] = AsmType.fromDescriptor (args [i], resolver);
+		}
+		parameterTypes.put (m, types);
+		return types;
+	}
+
+	synchronized Type getReturnType (ClassSkeleton.Method m)
+	{
+		Type type = returnTypes.get (m);
+		if (type != null)
+			return type;
+		if (m.signature != null)
+			type = AsmType.parseMethodSignature (m.signature, resolver).returnType;
+		else
+			type = AsmType.fromDescriptor (org.objectweb.asm.Type.getReturnType (m.desc), resolver);
+		returnTypes.put (m, type);
+		return type;
+	}
+
+	List<AsmType.TypeParameter> getTypeParameters (ClassSkeleton.Method m)
+	{
+		if (m.signature == null)
+			return Collections.<AsmType.TypeParameter>emptyList ();
+		return AsmType.parseMethodSignature (m.signature, resolver).typeParameters;
+	}
+
+	static String getParameterTypeNames (ClassSkeleton.Method m)
+	{
+		StringBuffer sig = new StringBuffer ();
+		for (org.objectweb.asm.Type t : org.objectweb.asm.Type.getArgumentTypes (m.desc)) {
+			sig.append (":");
+			sig.append (AsmType.getClassName (t));
+		}
+		return sig.toString ();
+	}
+
+	void appendCtor (ClassSkeleton.Method ctor, Document doc, Element parent)
+	{
+		int mods = ctor.access;
+		if (!Modifier.isPublic (mods) && !Modifier.isProtected (mods))
+			return;
+		Element e = doc.createElement ("constructor");
+		e.setAttribute ("name", getSimpleName (asm));
+		e.setAttribute ("type", getClassName (getAsmType (), true));
+		e.setAttribute ("final", Modifier.isFinal (mods) ? "true" : "false");
+		e.setAttribute ("static", Modifier.isStatic (mods) ? "true" : "false");
+		e.setAttribute ("visibility", Modifier.isPublic (mods) ? "public" : "protected");
+		setDeprecatedAttr (e, ctor.deprecated, e.getAttribute ("name"));
+
+		Type [] params = getParameterTypes (ctor);
+		appendParameters (parent.getAttribute ("name"), params, getConstructorParameterOffset (params), (mods & Opcodes.ACC_VARARGS) != 0, doc, e);
+		e.appendChild (doc.createTextNode ("\n"));
+		parent.appendChild (e);
+	}
+
+	int getConstructorParameterOffset (Type [] params)
+	{
+		if (Modifier.isStatic (asm.modifiers))
+			return 0; // this has nothing to do with static class
+
+		String declaring = asm.declaringClass;
+		if (declaring != null && params.length > 0 && params [0] instanceof AsmType.Raw && ((AsmType.Raw) params [0]).getName ().equals (declaring.replace ('/', '.')))
+			return 1;
+		return 0;
+	}
+
+	void appendField (ClassSkeleton.Field field, Document doc, Element parent)
+	{
+		int mods = field.access;
+		if (!Modifier.isPublic (mods) && !Modifier.isProtected (mods))
+			return;
+
+		org.objectweb.asm.Type type = org.objectweb.asm.Type.getType (field.desc);
+		Element e = doc.createElement ("field");
+		e.setAttribute ("name", field.name);
+		e.setAttribute ("type", getClassName (type, true));
+		e.setAttribute ("type-generic-aware", getGenericTypeName (field.signature != null ? AsmType.parseTypeSignature (field.signature, resolver) : AsmType.fromDescriptor (type, resolver)));
+		e.setAttribute ("final", Modifier.isFinal (mods) ? "true" : "false");
+		e.setAttribute ("static", Modifier.isStatic (mods) ? "true" : "false");
+		if (Modifier.isAbstract (mods))
+			e.setAttribute ("abstract", "true");
+		e.setAttribute ("transient", Modifier.isTransient (mods) ? "true" : "false");
+		e.setAttribute ("visibility", Modifier.isPublic (mods) ? "public" : "protected");
+		e.setAttribute ("volatile", Modifier.isVolatile (mods) ? "true" : "false");
+		setDeprecatedAttr (e, field.deprecated, e.getAttribute ("name"));
+
+		appendConstantValue (e, mods, field, field.name);
+		e.appendChild (doc.createTextNode ("\n"));
+		parent.appendChild (e);
+	}
+
+	void appendMethod (ClassSkeleton.Method method, Document doc, Element parent)
+	{
+		int mods = method.access;
+		if (!Modifier.isPublic (mods) && !Modifier.isProtected (mods))
+			return;
+		Element e = doc.createElement ("method");
+		e.setAttribute ("name", method.name);
+		Element typeParameters = getTypeParametersNode (doc, getTypeParameters (method));
+		if (typeParameters != null)
+			e.appendChild (typeParameters);
+
+		e.setAttribute ("return", getGenericTypeName (getReturnType (method)));
+		e.setAttribute ("final", Modifier.isFinal (mods) ? "true" : "false");
+		e.setAttribute ("static", Modifier.isStatic (mods) ? "true" : "false");
+		e.setAttribute ("abstract", Modifier.isAbstract (mods) ? "true" : "false");
+		e.setAttribute ("native", Modifier.isNative (mods) ? "true" : "false");
+		// This special condition is due to API difference between Oracle Java and android.
+		if (asm.name.equals ("javax/net/ServerSocketFactory") && method.name.equals ("getDefault"))
+			e.setAttribute ("synchronized", "true");
+		else
+			e.setAttribute ("synchronized", Modifier.isSynchronized (mods) ? "true" : "false");
+		e.setAttribute ("visibility", Modifier.isPublic (mods) ? "public" : "protected");
+
+		String easyName = method.name + "(";
+		org.objectweb.asm.Type [] ptypes = org.objectweb.asm.Type.getArgumentTypes (method.desc);
+		for (int idx = 0; idx < ptypes.length; idx++)
+			easyName += (idx > 0 ? "," : "") + getSimpleName (ptypes [idx]);
+		easyName += ")";
+		setDeprecatedAttr (e, method.deprecated, easyName);
+
+		appendParameters (method.name, getParameterTypes (method), 0, (mods & Opcodes.ACC_VARARGS) != 0, doc, e);
+
+		org.objectweb.asm.Type [] excTypes = new org.objectweb.asm.Type [method.exceptions.length];
+		String [] excNames = new String [excTypes.length];
+		for (int i = 0; i < excTypes.length; i++) {
+			excTypes [i] = org.objectweb.asm.Type.getObjectType (method.exceptions [i]);
+			excNames [i] = getSimpleName (excTypes [i]);
+		}
+		sortByKeys (excTypes, excNames);
+		for (org.objectweb.asm.Type exc : excTypes) {
+			Element exe = doc.createElement ("exception");
+			exe.setAttribute ("name", getClassName (exc, false));
+			exe.setAttribute ("type", getClassName (exc, true));
+			exe.appendChild (doc.createTextNode ("\n"));
+			e.appendChild (exe);
+		}
+
+		e.appendChild (doc.createTextNode ("\n"));
+		parent.appendChild (e);
+	}
+
+	static Element getTypeParametersNode (Document doc, List<AsmType.TypeParameter> tps)
+	{
+		if (tps.size () == 0)
+			return null;
+		Element tps_elem = doc.createElement ("typeParameters");
+		for (AsmType.TypeParameter tp : tps) {
+			Element tp_elem = doc.createElement ("typeParameter");
+			tp_elem.setAttribute ("name", tp.name);
+			if (tp.bounds.size () != 1 || !isObject (tp.bounds.get (0))) {
+				Element tcs_elem = doc.createElement ("genericConstraints");
+				for (Type tc : tp.bounds) {
+					if (isObject (tc))
+						continue;
+					Element tc_elem = doc.createElement ("genericConstraint");
+					if (tc instanceof AsmType.Raw || tc instanceof ParameterizedType)
+						tc_elem.setAttribute ("type", getGenericTypeName (tc));
+					else if (tc instanceof AsmType.Variable)
+						tc_elem.setAttribute ("type", ((AsmType.Variable) tc).getName ());
+					else
+						throw new UnsupportedOperationException ("internal error: unsupported type of Type " + tc.getClass ());
+					tcs_elem.appendChild (tc_elem);
+				}
+				tp_elem.appendChild (tcs_elem);
+			}
+			tps_elem.appendChild (tp_elem);
+		}
+		return tps_elem;
+	}
+
+	static boolean isObject (Type t)
+	{
+		return t instanceof AsmType.Raw && ((AsmType.Raw) t).getName ().equals ("java.lang.Object");
+	}
+
+	boolean isAssignableFrom (AsmType.Raw base, AsmType.Raw derived)
+	{
+		if (base.equals (derived))
+			return true;
+		String b = base.getName (), d = derived.getName ();
+		if (base.isPrimitive () || derived.isPrimitive () || base.isArray () || derived.isArray ())
+			return b.equals ("java.lang.Object") && !derived.isPrimitive ();
+		return resolver.isAssignableFrom (b.replace ('.', '/'), d.replace ('.', '/'));
+	}
+
+	String getGenericSignature (ClassSkeleton.Method method)
+	{
+		StringBuffer sig = new StringBuffer ();
+		sig.append (method.name);
+		for (Type t : getParameterTypes (method)) {
+			sig.append (":");
+			sig.append (getGenericTypeName (t));
+		}
+		return sig.toString ();
+	}
+
+	void doAppendToDocument (Document doc, Element parent)
+	{
+		int mods = asm.modifiers;
+		boolean isInterface = asm.isInterface ();
+		AsmType.ClassSignature signature = asm.signature != null ? AsmType.parseClassSignature (asm.signature, resolver) : null;
+
+		Element e = doc.createElement (isInterface ? "interface" : "class");
+		if (!isInterface && asm.superName != null) {
+			Type t = signature != null ? signature.superclass : AsmType.fromInternalName (asm.superName, resolver);
+			e.setAttribute ("extends-generic-aware", getGenericTypeName (t));
+			e.setAttribute ("extends", getClassName (org.objectweb.asm.Type.getObjectType (asm.superName), true));
+		}
+
+		String className = getClassName (getAsmType (), false);
+		e.setAttribute ("name", className);
+		e.setAttribute ("final", Modifier.isFinal (mods) ? "true" : "false");
+		e.setAttribute ("static", Modifier.isStatic (mods) ? "true" : "false");
+		e.setAttribute ("abstract", Modifier.isAbstract (mods) ? "true" : "false");
+		e.setAttribute ("visibility", Modifier.isPublic (mods) ? "public" : Modifier.isProtected (mods) ? "protected" : "");
+		if (is_obfuscated)
+			e.setAttribute ("obfuscated", Boolean.toString (is_obfuscated));
+
+		if (signature != null) {
+			Element typeParameters = getTypeParametersNode (doc, signature.typeParameters);
+			if (typeParameters != null)
+				e.appendChild (typeParameters);
+		}
+
+		setDeprecatedAttr (e, asm.deprecated, e.getAttribute ("name"));
+		Type [] ifaces;
+		if (signature != null)
+			ifaces = signature.interfaces.toArray (new Type [0]);
+		else {
+			ifaces = new Type [asm.interfaces.length];
+			for (int i = 0; i < ifaces.length; i++)
+				ifaces [i] = AsmType.fromInternalName (asm.interfaces [i], resolver);
+		}
+		sortTypes (ifaces);
+		for (Type iface : ifaces) {
+			Element iface_elem = doc.createElement ("implements");
+			if (iface instanceof ParameterizedType)
+				iface_elem.setAttribute ("name", getGenericTypeName (((ParameterizedType) iface).getRawType ()));
+			else
+				iface_elem.setAttribute ("name", getGenericTypeName (iface));
+			iface_elem.setAttribute ("name-generic-aware", getGenericTypeName (iface));
+			iface_elem.appendChild (doc.createTextNode ("\n"));
+			e.appendChild (iface_elem);
+		}
+
+		List<ClassSkeleton.Method> ctorList = new ArrayList<ClassSkeleton.Method> ();
+		for (ClassSkeleton.Method m : asm.methods)
+			if (m.name.equals ("<init>"))
+				ctorList.add (m);
+		ClassSkeleton.Method [] ctors = ctorList.toArray (new ClassSkeleton.Method [ctorList.size ()]);
+		String [] ctorKeys = new String [ctors.length];
+		for (int i = 0; i < ctors.length; i++)
+			ctorKeys [i] = getParameterTypeNames (ctors [i]);
+		sortByKeys (ctors, ctorKeys);
+		for (ClassSkeleton.Method ctor : ctors)
+			appendCtor (ctor, doc, e);
+
+		HierarchyIndex.Asm hierarchy = archive.getAsmHierarchy ();
+		boolean publicChain = hierarchy.isInPublicInheritanceChain (asm);
+		Map<String, ClassSkeleton.Method> methods = new HashMap <String, ClassSkeleton.Method> ();
+		for (ClassSkeleton.Method method : asm.methods) {
+			if (method.name.startsWith ("<"))
+				continue;
+			// See JavaClass: skip synthetic methods unless the class derives from a non-public one.
+			if ((method.access & Opcodes.ACC_SYNTHETIC) != 0 && publicChain)
+				continue;
+
+			int mmods = method.access;
+
+			int rtmods = resolver.getModifiers (org.objectweb.asm.Type.getReturnType (method.desc));
+			if (!Modifier.isPublic (rtmods) && !Modifier.isProtected (rtmods))
+				continue;
+			boolean nonPublic = false;
+			for (org.objectweb.asm.Type ptype : org.objectweb.asm.Type.getArgumentTypes (method.desc)) {
+				int ptmods = resolver.getModifiers (ptype);
+				if (!Modifier.isPublic (ptmods) && !Modifier.isProtected (ptmods))
+					nonPublic = true;
+			}
+			if (nonPublic)
+				continue;
+
+			if (asm.superName != null && !Modifier.isFinal (mmods)) {
+				HierarchyIndex.Declaration<ClassSkeleton,ClassSkeleton.Method> base = hierarchy.getNearestDeclaration (resolver.get (asm.superName), HierarchyIndex.Asm.getSignature (method.name, method.desc));
+
+				if (base != null) {
+					// See JavaClass for the rationale of the conditions below.
+					int base_mods = base.method.access;
+					int base_decl_class_mods = base.owner.modifiers;
+					if (!Modifier.isStatic (base_mods) && !Modifier.isAbstract (base_mods) && (Modifier.isPublic (mmods) == Modifier.isPublic (base_mods)) && Modifier.isPublic (base_decl_class_mods)) {
+						if (!Modifier.isAbstract (mmods) || method.name.equals ("finalize")) {
+							if (!method.name.equals ("put") || !asm.name.equals ("java/security/Provider"))
+								continue;
+						}
+					}
+				}
+			}
+
+			String key = getGenericSignature (method);
+			if (methods.containsKey (key)) {
+				Type method_type = getReturnType (method);
+				ClassSkeleton.Method hashed = methods.get (key);
+				Type hashed_type = getReturnType (hashed);
+				AsmType.Raw mret = method_type instanceof AsmType.Raw ? (AsmType.Raw) method_type : null;
+				AsmType.Raw hret = hashed_type instanceof AsmType.Raw ? (AsmType.Raw) hashed_type : null;
+				if (mret == null || (hret != null && isAssignableFrom (hret, mret)))
+					methods.put (key, method);
+				else if (hret != null && !isAssignableFrom (mret, hret)) {
+					System.err.print ("warning J2XA007: method collision: " + getName () + "." + key);
+					System.err.println ("   " + hashed_type.toString () + " ----- " + method_type.toString ());
+				}
+			} else {
+				methods.put (key, method);
+			}
+		}
+
+		ArrayList <String> sigs = new ArrayList<String> (methods.keySet ());
+		Collections.sort (sigs);
+		for (String sig : sigs)
+			appendMethod (methods.get (sig), doc, e);
+
+		ClassSkeleton.Field [] fields = asm.fields.clone ();
+		Arrays.sort (fields, new Comparator<ClassSkeleton.Field> () {
+			public int compare (ClassSkeleton.Field f1, ClassSkeleton.Field f2)
+			{
+				return f1.name.compareTo (f2.name);
+			}
+		});
+		for (ClassSkeleton.Field field : fields)
+			appendField (field, doc, e);
+		parent.appendChild (e);
+	}
+}
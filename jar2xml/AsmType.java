@@ -0,0 +1,501 @@
+/* 
+ *  Copyright (c) 2011 Xamarin Inc.
+ * 
+ *  Permission is hereby granted, free of charge, to any person 
+ *  obtaining a copy of this software and associated documentation 
+ *  files (the "Software"), to deal in the Software without restriction, 
+ *  including without limitation the rights to use, copy, modify, merge, 
+ *  publish, distribute, sublicense, and/or sell copies of the Software, 
+ *  and to permit persons to whom the Software is furnished to do so, 
+ *  subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be 
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES 
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS 
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN 
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE 
+ *  SOFTWARE.
+ */
+
+package jar2xml;
+
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.signature.SignatureReader;
+import org.objectweb.asm.signature.SignatureVisitor;
+
+// java.lang.reflect.Type implementations built from ASM descriptors and
+// generic signatures, for the ASM-only engine (AsmJavaClass).
+//
+// They model what the reflection API returns for the same declarations:
+// plain classes (Raw, standing for java.lang.Class), parameterized types,
+// type variables, wildcards and generic arrays, and their toString() match
+// the JDK implementations so that scrapers and messages are unaffected.
+public abstract class AsmType implements Type {
+
+	// set by JavaClass.getGenericTypeName (); types are immutable.
+	String genericTypeName;
+
+	public String getTypeName ()
+	{
+		return toString ();
+	}
+
+	// Equivalent of java.lang.Class. The name is in Class.getName() format.
+	public static class Raw extends AsmType {
+		String name;
+		boolean isInterface;
+
+		Raw (String name, boolean isInterface)
+		{
+			this.name = name;
+			this.isInterface = isInterface;
+		}
+
+		public String getName ()
+		{
+			return name;
+		}
+
+		public boolean isArray ()
+		{
+			return name.charAt (0) == '[';
+		}
+
+		public boolean isPrimitive ()
+		{
+			return isPrimitiveName (name);
+		}
+
+		// internal name of the class (or of the array element class), or null for primitives.
+		public String getElementInternalName ()
+		{
+			org.objectweb.asm.Type t = getAsmType ();
+			if (t.getSort () == org.objectweb.asm.Type.ARRAY)
+				t = t.getElementType ();
+			return t.getSort () == org.objectweb.asm.Type.OBJECT ? t.getInternalName () : null;
+		}
+
+		public org.objectweb.asm.Type getAsmType ()
+		{
+			if (isArray ())
+				return org.objectweb.asm.Type.getType (name.replace ('.', '/'));
+			if (isPrimitiveName (name))
+				return getPrimitiveType (name);
+			return org.objectweb.asm.Type.getObjectType (name.replace ('.', '/'));
+		}
+
+		public String getTypeName ()
+		{
+			if (isArray ()) {
+				org.objectweb.asm.Type t = getAsmType ();
+				String elem = t.getElementType ().getClassName ();
+				StringBuilder sb = new StringBuilder (elem);
+				for (int i = 0; i < t.getDimensions (); i++)
+					sb.append ("[]");
+				return sb.toString ();
+			}
+			return name;
+		}
+
+		public String toString ()
+		{
+			return (isInterface ? "interface " : isPrimitive () ? "" : "class ") + name;
+		}
+
+		public boolean equals (Object o)
+		{
+			return o instanceof Raw && ((Raw) o).name.equals (name);
+		}
+
+		public int hashCode ()
+		{
+			return name.hashCode ();
+		}
+	}
+
+	public static class Parameterized extends AsmType implements ParameterizedType {
+		Raw raw;
+		Type owner;
+		Type [] args;
+
+		Parameterized (Raw raw, Type owner, Type [] args)
+		{
+			this.raw = raw;
+			this.owner = owner;
+			this.args = args;
+		}
+
+		public Type getRawType ()
+		{
+			return raw;
+		}
+
+		public Type getOwnerType ()
+		{
+			return owner;
+		}
+
+		public Type [] getActualTypeArguments ()
+		{
+			return args.clone ();
+		}
+
+		public String toString ()
+		{
+			StringBuilder sb = new StringBuilder ();
+			if (owner instanceof Parameterized) {
+				sb.append (owner.toString ());
+				sb.append ("$");
+				sb.append (raw.name.substring (((Parameterized) owner).raw.name.length () + 1));
+			} else
+				sb.append (raw.name);
+			for (int i = 0; i < args.length; i++)
+				sb.append (i == 0 ? "<" : ", ").append (((AsmType) args [i]).getTypeName ());
+			if (args.length > 0)
+				sb.append (">");
+			return sb.toString ();
+		}
+	}
+
+	public static class Variable extends AsmType {
+		String name;
+
+		Variable (String name)
+		{
+			this.name = name;
+		}
+
+		public String getName ()
+		{
+			return name;
+		}
+
+		public String toString ()
+		{
+			return name;
+		}
+	}
+
+	public static class Wildcard extends AsmType {
+		char kind; // '*', '+' (extends) or '-' (super)
+		Type bound;
+
+		Wildcard (char kind, Type bound)
+		{
+			this.kind = kind;
+			this.bound = bound;
+		}
+
+		public String toString ()
+		{
+			if (kind == '-')
+				return "? super " + ((AsmType) bound).getTypeName ();
+			if (kind == '+' && !(bound instanceof Raw && ((Raw) bound).name.equals ("java.lang.Object")))
+				return "? extends " + ((AsmType) bound).getTypeName ();
+			return "?";
+		}
+	}
+
+	public static class GenericArray extends AsmType implements GenericArrayType {
+		Type component;
+
+		GenericArray (Type component)
+		{
+			this.component = component;
+		}
+
+		public Type getGenericComponentType ()
+		{
+			return component;
+		}
+
+		public String toString ()
+		{
+			return ((AsmType) component).getTypeName () + "[]";
+		}
+	}
+
+	// A formal type parameter and its bounds, as TypeVariable.getBounds() reports them.
+	public static class TypeParameter {
+		public String name;
+		public List<Type> bounds = new ArrayList<Type> ();
+	}
+
+	public static class ClassSignature {
+		public List<TypeParameter> typeParameters = new ArrayList<TypeParameter> ();
+		public Type superclass;
+		public List<Type> interfaces = new ArrayList<Type> ();
+	}
+
+	public static class MethodSignature {
+		public List<TypeParameter> typeParameters = new ArrayList<TypeParameter> ();
+		public List<Type> parameterTypes = new ArrayList<Type> ();
+		public Type returnType;
+	}
+
+	static boolean isPrimitiveName (String name)
+	{
+		return name.equals ("int") || name.equals ("long") || name.equals ("boolean") || name.equals ("byte") ||
+			name.equals ("char") || name.equals ("short") || name.equals ("float") || name.equals ("double") || name.equals ("void");
+	}
+
+	static org.objectweb.asm.Type getPrimitiveType (String name)
+	{
+		if (name.equals ("int"))
+			return org.objectweb.asm.Type.INT_TYPE;
+		if (name.equals ("long"))
+			return org.objectweb.asm.Type.LONG_TYPE;
+		if (name.equals ("boolean"))
+			return org.objectweb.asm.Type.BOOLEAN_TYPE;
+		if (name.equals ("byte"))
+			return org.objectweb.asm.Type.BYTE_TYPE;
+		if (name.equals ("char"))
+			return org.objectweb.asm.Type.CHAR_TYPE;
+		if (name.equals ("short"))
+			return org.objectweb.asm.Type.SHORT_TYPE;
+		if (name.equals ("float"))
+			return org.objectweb.asm.Type.FLOAT_TYPE;
+		if (name.equals ("double"))
+			return org.objectweb.asm.Type.DOUBLE_TYPE;
+		return org.objectweb.asm.Type.VOID_TYPE;
+	}
+
+	// Class.getName() format of a descriptor type: "int", "java.lang.String", "[I", "[Ljava.lang.String;"
+	public static String getClassName (org.objectweb.asm.Type t)
+	{
+		if (t.getSort () == org.objectweb.asm.Type.ARRAY)
+			return t.getDescriptor ().replace ('/', '.');
+		return t.getClassName ();
+	}
+
+	public static Raw fromDescriptor (org.objectweb.asm.Type t, ClassResolver resolver)
+	{
+		boolean isInterface = false;
+		if (t.getSort () == org.objectweb.asm.Type.OBJECT) {
+			ClassSkeleton node = resolver.get (t.getInternalName ());
+			isInterface = node != null && node.isInterface ();
+		}
+		return new Raw (getClassName (t), isInterface);
+	}
+
+	public static Raw fromInternalName (String name, ClassResolver resolver)
+	{
+		return fromDescriptor (org.objectweb.asm.Type.getObjectType (name), resolver);
+	}
+
+	public static ClassSignature parseClassSignature (String signature, final ClassResolver resolver)
+	{
+		final ClassSignature result = new ClassSignature ();
+		new SignatureReader (signature).accept (new FormalTypeParameterVisitor (result.typeParameters, resolver) {
+			public SignatureVisitor visitSuperclass ()
+			{
+				return new TypeBuilder (resolver) {
+					void done (Type t)
+					{
+						result.superclass = t;
+					}
+				};
+			}
+
+			public SignatureVisitor visitInterface ()
+			{
+				return new TypeBuilder (resolver) {
+					void done (Type t)
+					{
+						result.interfaces.add (t);
+					}
+				};
+			}
+		});
+		return result;
+	}
+
+	public static MethodSignature parseMethodSignature (String signature, final ClassResolver resolver)
+	{
+		final MethodSignature result = new MethodSignature ();
+		new SignatureReader (signature).accept (new FormalTypeParameterVisitor (result.typeParameters, resolver) {
+			public SignatureVisitor visitParameterType ()
+			{
+				return new TypeBuilder (resolver) {
+					void done (Type t)
+					{
+						result.parameterTypes.add (t);
+					}
+				};
+			}
+
+			public SignatureVisitor visitReturnType ()
+			{
+				return new TypeBuilder (resolver) {
+					void done (Type t)
+					{
+						result.returnType = t;
+					}
+				};
+			}
+
+			public SignatureVisitor visitExceptionType ()
+			{
+				return new TypeBuilder (resolver) {
+					void done (Type t)
+					{
+					}
+				};
+			}
+		});
+		return result;
+	}
+
+	public static Type parseTypeSignature (String signature, ClassResolver resolver)
+	{
+		final Type [] result = new Type [1];
+		new SignatureReader (signature).acceptType (new TypeBuilder (resolver) {
+			void done (Type t)
+			{
+				result [0] = t;
+			}
+		});
+		return result [0];
+	}
+
+	static class FormalTypeParameterVisitor extends SignatureVisitor {
+		List<TypeParameter> typeParameters;
+		ClassResolver resolver;
+
+		FormalTypeParameterVisitor (List<TypeParameter> typeParameters, ClassResolver resolver)
+		{
+			super (Opcodes.ASM5);
+			this.typeParameters = typeParameters;
+			this.resolver = resolver;
+		}
+
+		public void visitFormalTypeParameter (String name)
+		{
+			TypeParameter tp = new TypeParameter ();
+			tp.name = name;
+			typeParameters.add (tp);
+		}
+
+		public SignatureVisitor visitClassBound ()
+		{
+			return visitInterfaceBound ();
+		}
+
+		public SignatureVisitor visitInterfaceBound ()
+		{
+			final TypeParameter tp = typeParameters.get (typeParameters.size () - 1);
+			return new TypeBuilder (resolver) {
+				void done (Type t)
+				{
+					tp.bounds.add (t);
+				}
+			};
+		}
+	}
+
+	// Builds a single type, the way sun.reflect.generics would: classes
+	// without type arguments (also in arrays) are plain classes.
+	static abstract class TypeBuilder extends SignatureVisitor {
+		ClassResolver resolver;
+		int dims;
+		String className;
+		Type owner;
+		List<Type> args;
+		boolean parameterized;
+
+		TypeBuilder (ClassResolver resolver)
+		{
+			super (Opcodes.ASM5);
+			this.resolver = resolver;
+		}
+
+		abstract void done (Type t);
+
+		public void visitBaseType (char descriptor)
+		{
+			finish (fromDescriptor (org.objectweb.asm.Type.getType (String.valueOf (descriptor)), resolver));
+		}
+
+		public void visitTypeVariable (String name)
+		{
+			finish (new Variable (name));
+		}
+
+		public SignatureVisitor visitArrayType ()
+		{
+			dims++;
+			return this;
+		}
+
+		public void visitClassType (String name)
+		{
+			className = name;
+			args = new ArrayList<Type> ();
+		}
+
+		public void visitInnerClassType (String name)
+		{
+			owner = makeClassType ();
+			className = className + "$" + name;
+			args = new ArrayList<Type> ();
+		}
+
+		public void visitTypeArgument ()
+		{
+			parameterized = true;
+			args.add (new Wildcard ('*', null));
+		}
+
+		public SignatureVisitor visitTypeArgument (final char wildcard)
+		{
+			parameterized = true;
+			final List<Type> list = args;
+			return new TypeBuilder (resolver) {
+				void done (Type t)
+				{
+					list.add (wildcard == INSTANCEOF ? t : new Wildcard (wildcard, t));
+				}
+			};
+		}
+
+		public void visitEnd ()
+		{
+			finish (makeClassType ());
+		}
+
+		Type makeClassType ()
+		{
+			Raw raw = fromInternalName (className, resolver);
+			if (!parameterized)
+				return raw;
+			return new Parameterized (raw, owner, args.toArray (new Type [args.size ()]));
+		}
+
+		void finish (Type t)
+		{
+			if (dims > 0 && t instanceof Raw) {
+				org.objectweb.asm.Type elem = ((Raw) t).getAsmType ();
+				StringBuilder desc = new StringBuilder ();
+				for (int i = 0; i < dims; i++)
+					desc.append ('[');
+				desc.append (elem.getDescriptor ());
+				t = fromDescriptor (org.objectweb.asm.Type.getType (desc.toString ()), resolver);
+			} else {
+				for (int i = 0; i < dims; i++)
+					t = new GenericArray (t);
+			}
+			done (t);
+		}
+	}
+}
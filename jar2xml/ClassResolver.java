@@ -0,0 +1,150 @@
+/* 
+ *  Copyright (c) 2011 Xamarin Inc.
+ * 
+ *  Permission is hereby granted, free of charge, to any person 
+ *  obtaining a copy of this software and associated documentation 
+ *  files (the "Software"), to deal in the Software without restriction, 
+ *  including without limitation the rights to use, copy, modify, merge, 
+ *  publish, distribute, sublicense, and/or sell copies of the Software, 
+ *  and to permit persons to whom the Software is furnished to do so, 
+ *  subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be 
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES 
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS 
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN 
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE 
+ *  SOFTWARE.
+ */
+
+package jar2xml;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+// Looks up class structure for the ASM-only engine, without loading classes.
+//
+// Classes of the analyzed jars are taken from the JavaArchive, then from the
+// reference index if any, then the reference jars are read as class files
+// (through the ClassStore, so that jobs of a batch or a daemon share them). What remains (the platform classes
+// of the running JVM, whose class files ASM may not be able to read) is
+// described from reflection on the bootstrap/platform loader, which never
+// loads anything of the analyzed jars.
+public class ClassResolver {
+
+	static final ClassSkeleton missing = new ClassSkeleton (null, 0, null, null, null, 0, null, null, false, null, null);
+
+	Map<String,ClassSkeleton> classes;
+	Map<String,ClassSkeleton> cache = new ConcurrentHashMap<String,ClassSkeleton> ();
+	RefIndex refIndex;
+	List<JarReader> refs;
+	ClassStore store;
+	ClassLoader platform;
+
+	public ClassResolver (Map<String,ClassSkeleton> classes, RefIndex refIndex, List<JarReader> refs, ClassStore store)
+	{
+		this.classes = classes;
+		this.refIndex = refIndex;
+		this.refs = refs;
+		this.store = store;
+		platform = ClassLoader.getSystemClassLoader ().getParent ();
+	}
+
+	// Returns the class of the given internal name, or null if it cannot be found.
+	public ClassSkeleton get (String name)
+	{
+		ClassSkeleton node = classes.get (name);
+		if (node != null)
+			return node;
+		node = cache.get (name);
+		if (node == null) {
+			node = load (name);
+			cache.put (name, node == null ? missing : node);
+		}
+		return node == missing ? null : node;
+	}
+
+	ClassSkeleton load (String name)
+	{
+		if (refIndex != null && refIndex.contains (name)) {
+			try {
+				return refIndex.getSkeleton (name);
+			} catch (Exception e) {
+				System.err.println ("warning J2X9002: Couldn't read reference class " + name + " : " + e);
+			}
+		}
+		for (JarReader ref : refs) {
+			JarReader.Entry entry = ref.getEntry (name + ".class");
+			if (entry == null)
+				continue;
+			try {
+				return store.get (ref, entry);
+			} catch (Exception e) {
+				System.err.println ("warning J2X9002: Couldn't read reference class " + name + " : " + e);
+			}
+		}
+		try {
+			return describe (Class.forName (name.replace ('/', '.'), false, platform));
+		} catch (Throwable t) {
+			return null;
+		}
+	}
+
+	static ClassSkeleton describe (Class c)
+	{
+		String name = Type.getInternalName (c);
+		String [] interfaces = new String [c.getInterfaces ().length];
+		for (int i = 0; i < interfaces.length; i++)
+			interfaces [i] = Type.getInternalName (c.getInterfaces () [i]);
+		Method [] declared = c.getDeclaredMethods ();
+		ClassSkeleton.Method [] methods = new ClassSkeleton.Method [declared.length];
+		for (int i = 0; i < declared.length; i++) {
+			Method m = declared [i];
+			String [] exceptions = new String [m.getExceptionTypes ().length];
+			for (int j = 0; j < exceptions.length; j++)
+				exceptions [j] = Type.getInternalName (m.getExceptionTypes () [j]);
+			methods [i] = new ClassSkeleton.Method (m.getName (), Type.getMethodDescriptor (m), null, m.getModifiers (), exceptions, false);
+		}
+		return new ClassSkeleton (name, c.getModifiers () | (c.isInterface () ? Opcodes.ACC_INTERFACE : 0), null,
+			c.getSuperclass () != null ? Type.getInternalName (c.getSuperclass ()) : null, interfaces,
+			c.getModifiers (), c.getDeclaringClass () != null ? Type.getInternalName (c.getDeclaringClass ()) : null,
+			c.getSimpleName (), false, new ClassSkeleton.Field [0], methods);
+	}
+
+	// Equivalent of Class.getModifiers () for a descriptor type. Types that cannot be found count as public.
+	public int getModifiers (Type type)
+	{
+		if (type.getSort () == Type.ARRAY)
+			type = type.getElementType ();
+		if (type.getSort () != Type.OBJECT)
+			return Modifier.PUBLIC | Modifier.ABSTRACT | Modifier.FINAL;
+		ClassSkeleton node = get (type.getInternalName ());
+		return node == null ? Modifier.PUBLIC : node.modifiers;
+	}
+
+	public boolean isAssignableFrom (String base, String derived)
+	{
+		if (base.equals (derived) || base.equals ("java/lang/Object"))
+			return true;
+		ClassSkeleton node = get (derived);
+		if (node == null)
+			return false;
+		if (node.superName != null && isAssignableFrom (base, node.superName))
+			return true;
+		for (String i : node.interfaces)
+			if (isAssignableFrom (base, i))
+				return true;
+		return false;
+	}
+}
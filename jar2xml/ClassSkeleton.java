@@ -0,0 +1,347 @@
+/* 
+ *  Copyright (c) 2011 Xamarin Inc.
+ * 
+ *  Permission is hereby granted, free of charge, to any person 
+ *  obtaining a copy of this software and associated documentation 
+ *  files (the "Software"), to deal in the Software without restriction, 
+ *  including without limitation the rights to use, copy, modify, merge, 
+ *  publish, distribute, sublicense, and/or sell copies of the Software, 
+ *  and to permit persons to whom the Software is furnished to do so, 
+ *  subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be 
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES 
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS 
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN 
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE 
+ *  SOFTWARE.
+ */
+
+package jar2xml;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+// The API surface of a class file: what jar2xml needs of a class, and nothing else.
+//
+// A ClassNode keeps instructions, frames, debug information and every attribute
+// of the class for as long as it is referenced, and all of them used to stay
+// in memory for the whole run. A skeleton is built by a ClassVisitor that
+// skips all that, and is immutable once built (the arrays must not be
+// modified either), so it can be shared between threads without locking.
+public class ClassSkeleton {
+
+	static final String DEPRECATED = "Ljava/lang/Deprecated;";
+
+	public final String name;
+	public final int access;
+	public final String signature;
+	public final String superName;
+	public final String [] interfaces;
+	// Same as Class.getModifiers (): member classes report the flags of their InnerClasses entry.
+	public final int modifiers;
+	// Internal name of the declaring class of a member class, or null.
+	public final String declaringClass;
+	// Same as Class.getSimpleName (); null for anonymous classes.
+	public final String simpleName;
+	public final boolean deprecated;
+	public final Field [] fields;
+	public final Method [] methods;
+
+	public ClassSkeleton (String name, int access, String signature, String superName, String [] interfaces,
+		int modifiers, String declaringClass, String simpleName, boolean deprecated, Field [] fields, Method [] methods)
+	{
+		this.name = name;
+		this.access = access;
+		this.signature = signature;
+		this.superName = superName;
+		this.interfaces = interfaces;
+		this.modifiers = modifiers;
+		this.declaringClass = declaringClass;
+		this.simpleName = simpleName;
+		this.deprecated = deprecated;
+		this.fields = fields;
+		this.methods = methods;
+	}
+
+	public boolean isInterface ()
+	{
+		return (access & Opcodes.ACC_INTERFACE) != 0;
+	}
+
+	public static class Field {
+		public final String name;
+		public final String desc;
+		public final String signature;
+		public final int access;
+		// ConstantValue attribute, or null.
+		public final Object value;
+		public final boolean deprecated;
+
+		public Field (String name, String desc, String signature, int access, Object value, boolean deprecated)
+		{
+			this.name = name;
+			this.desc = desc;
+			this.signature = signature;
+			this.access = access;
+			this.value = value;
+			this.deprecated = deprecated;
+		}
+	}
+
+	public static class Method {
+		public final String name;
+		public final String desc;
+		public final String signature;
+		public final int access;
+		public final String [] exceptions;
+		public final boolean deprecated;
+		// One per parameter of the descriptor, or null. Synthetic parameters may
+		// have none. Only read on request, see read ().
+		public final String [] parameterNames;
+
+		public Method (String name, String desc, String signature, int access, String [] exceptions, boolean deprecated)
+		{
+			this (name, desc, signature, access, exceptions, deprecated, null);
+		}
+
+		public Method (String name, String desc, String signature, int access, String [] exceptions, boolean deprecated, String [] parameterNames)
+		{
+			this.name = name;
+			this.desc = desc;
+			this.signature = signature;
+			this.access = access;
+			this.exceptions = exceptions;
+			this.deprecated = deprecated;
+			this.parameterNames = parameterNames;
+		}
+	}
+
+	static final int PARSING_OPTIONS = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+	// Local variable tables are in the code, which then has to be walked through.
+	static final int PARAMETER_NAMES_PARSING_OPTIONS = ClassReader.SKIP_FRAMES;
+
+	public static ClassSkeleton read (ClassReader reader)
+	{
+		return read (reader, false);
+	}
+
+	// With parameterNames, the methods also get the names of their parameters,
+	// from the MethodParameters attribute (javac -parameters) or else from the
+	// local variable table (javac -g).
+	public static ClassSkeleton read (ClassReader reader, boolean parameterNames)
+	{
+		Builder builder = new Builder (parameterNames);
+		reader.accept (builder, parameterNames ? PARAMETER_NAMES_PARSING_OPTIONS : PARSING_OPTIONS);
+		return builder.result;
+	}
+
+	// Strings are interned: member names, descriptors and type names repeat a lot across a jar.
+	static String intern (String s)
+	{
+		return s == null ? null : s.intern ();
+	}
+
+	static String [] intern (String [] a)
+	{
+		if (a == null || a.length == 0)
+			return empty_strings;
+		String [] result = new String [a.length];
+		for (int i = 0; i < a.length; i++)
+			result [i] = a [i].intern ();
+		return result;
+	}
+
+	static final String [] empty_strings = new String [0];
+
+	static class Builder extends ClassVisitor {
+		ClassSkeleton result;
+		String name;
+		int access;
+		String signature;
+		String superName;
+		String [] interfaces;
+		int modifiers;
+		String declaringClass;
+		String simpleName;
+		boolean deprecated;
+		List<Field> fields = new ArrayList<Field> ();
+		List<Method> methods = new ArrayList<Method> ();
+		boolean parameterNames;
+
+		Builder (boolean parameterNames)
+		{
+			super (Opcodes.ASM5);
+			this.parameterNames = parameterNames;
+		}
+
+		public void visit (int version, int access, String name, String signature, String superName, String [] interfaces)
+		{
+			this.name = intern (name);
+			this.access = access;
+			this.signature = signature;
+			this.superName = intern (superName);
+			this.interfaces = intern (interfaces);
+			modifiers = access & ~Opcodes.ACC_SUPER;
+			simpleName = name.substring (name.lastIndexOf ('/') + 1);
+		}
+
+		public void visitInnerClass (String name, String outerName, String innerName, int access)
+		{
+			if (!name.equals (this.name))
+				return;
+			modifiers = access;
+			declaringClass = intern (outerName);
+			simpleName = innerName;
+		}
+
+		public AnnotationVisitor visitAnnotation (String desc, boolean visible)
+		{
+			if (visible && desc.equals (DEPRECATED))
+				deprecated = true;
+			return null;
+		}
+
+		public FieldVisitor visitField (final int access, final String name, final String desc, final String signature, final Object value)
+		{
+			return new FieldVisitor (Opcodes.ASM5) {
+				boolean deprecated;
+
+				public AnnotationVisitor visitAnnotation (String adesc, boolean visible)
+				{
+					if (visible && adesc.equals (DEPRECATED))
+						deprecated = true;
+					return null;
+				}
+
+				public void visitEnd ()
+				{
+					fields.add (new Field (intern (name), intern (desc), signature, access, value, deprecated));
+				}
+			};
+		}
+
+		public MethodVisitor visitMethod (final int access, final String name, final String desc, final String signature, final String [] exceptions)
+		{
+			if (parameterNames)
+				return new NamesVisitor (access, name, desc, signature, exceptions);
+			return new MethodVisitor (Opcodes.ASM5) {
+				boolean deprecated;
+
+				public AnnotationVisitor visitAnnotation (String adesc, boolean visible)
+				{
+					if (visible && adesc.equals (DEPRECATED))
+						deprecated = true;
+					return null;
+				}
+
+				public void visitEnd ()
+				{
+					methods.add (new Method (intern (name), intern (desc), signature, access, intern (exceptions), deprecated));
+				}
+			};
+		}
+
+		class NamesVisitor extends MethodVisitor {
+			int access;
+			String name, desc, signature;
+			String [] exceptions;
+			boolean deprecated;
+			List<String> parameters = new ArrayList<String> ();
+			// the local variable slot of each parameter, by its descriptor index.
+			int [] slots;
+			String [] locals;
+			// labels in code order; parameters are the locals that start at the first one.
+			Map<Label,Integer> labels = new HashMap<Label,Integer> ();
+
+			NamesVisitor (int access, String name, String desc, String signature, String [] exceptions)
+			{
+				super (Opcodes.ASM5);
+				this.access = access;
+				this.name = name;
+				this.desc = desc;
+				this.signature = signature;
+				this.exceptions = exceptions;
+				Type [] args = Type.getArgumentTypes (desc);
+				slots = new int [args.length];
+				int slot = (access & Opcodes.ACC_STATIC) != 0 ? 0 : 1;
+				for (int i = 0; i < args.length; i++) {
+					slots [i] = slot;
+					// long and double take two slots.
+					slot += args [i].getSize ();
+				}
+				locals = new String [slot];
+			}
+
+			public AnnotationVisitor visitAnnotation (String adesc, boolean visible)
+			{
+				if (visible && adesc.equals (DEPRECATED))
+					deprecated = true;
+				return null;
+			}
+
+			public void visitParameter (String pname, int paccess)
+			{
+				parameters.add (pname);
+			}
+
+			public void visitLabel (Label label)
+			{
+				labels.put (label, labels.size ());
+			}
+
+			public void visitLocalVariable (String lname, String ldesc, String lsignature, Label start, Label end, int index)
+			{
+				Integer order = labels.get (start);
+				if (index < locals.length && order != null && order == 0)
+					locals [index] = lname;
+			}
+
+			String [] getNames ()
+			{
+				// Some compilers leave synthetic and mandated parameters (the outer
+				// instance, the name and ordinal of enum constants) out of
+				// MethodParameters, or out of the local variable table; their names
+				// are left null.
+				String [] names = new String [slots.length];
+				boolean found = false;
+				if (parameters.size () > 0 && parameters.size () <= slots.length) {
+					int offset = slots.length - parameters.size ();
+					for (int i = offset; i < names.length; i++)
+						found |= (names [i] = intern (parameters.get (i - offset))) != null;
+				} else {
+					for (int i = 0; i < names.length; i++)
+						found |= (names [i] = intern (locals [slots [i]])) != null;
+				}
+				return found ? names : null;
+			}
+
+			public void visitEnd ()
+			{
+				methods.add (new Method (intern (name), intern (desc), signature, access, intern (exceptions), deprecated, getNames ()));
+			}
+		}
+
+		public void visitEnd ()
+		{
+			result = new ClassSkeleton (name, access, signature, superName, interfaces, modifiers, declaringClass, simpleName, deprecated,
+				fields.toArray (new Field [fields.size ()]), methods.toArray (new Method [methods.size ()]));
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/* 
+ *  Copyright (c) 2011 Xamarin Inc.
+ * 
+ *  Permission is hereby granted, free of charge, to any person 
+ *  obtaining a copy of this software and associated documentation 
+ *  files (the "Software"), to deal in the Software without restriction, 
+ *  including without limitation the rights to use, copy, modify, merge, 
+ *  publish, distribute, sublicense, and/or sell copies of the Software, 
+ *  and to permit persons to whom the Software is furnished to do so, 
+ *  subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be 
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES 
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS 
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN 
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE 
+ *  SOFTWARE.
+ */
+
+package jar2xml;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.objectweb.asm.ClassReader;
+
+// Class skeletons by class file, shared by all the jobs of a process.
+//
+// Successive API levels mostly contain the very same class files, so a batch
+// (see Start) reads and keeps each of them once. Class files are identified
+// by their name and the CRC and size recorded in the jar, which needs no
+// inflating. A daemon bounds the store, dropping the least recently used.
+public class ClassStore {
+
+	Map<String,ClassSkeleton> skeletons;
+
+	public ClassStore ()
+	{
+		skeletons = new ConcurrentHashMap<String,ClassSkeleton> ();
+	}
+
+	public ClassStore (final int capacity)
+	{
+		skeletons = Collections.synchronizedMap (new LinkedHashMap<String,ClassSkeleton> (1024, 0.75f, true) {
+			protected boolean removeEldestEntry (Map.Entry<String,ClassSkeleton> eldest)
+			{
+				return size () > capacity;
+			}
+		});
+	}
+
+	public static String getFingerprint (JarReader.Entry entry)
+	{
+		if (entry.getCrc () == -1 || entry.getSize () == -1)
+			return null;
+		return entry.getCrc () + ":" + entry.getSize ();
+	}
+
+	public ClassSkeleton get (JarReader file, JarReader.Entry entry) throws IOException
+	{
+		return get (file, entry, false, null);
+	}
+
+	// See ClassSkeleton.read () for parameterNames; skeletons with and without them are kept apart.
+	// bytes are the class file if the caller has already read it, or null.
+	public ClassSkeleton get (JarReader file, JarReader.Entry entry, boolean parameterNames, byte [] bytes) throws IOException
+	{
+		String fingerprint = getFingerprint (entry);
+		String key = fingerprint != null ? entry.getName () + ":" + fingerprint + (parameterNames ? ":names" : "") : null;
+		ClassSkeleton node = key != null ? skeletons.get (key) : null;
+		if (node != null)
+			return node;
+
+		node = ClassSkeleton.read (new ClassReader (bytes != null ? bytes : file.read (entry)), parameterNames);
+		if (key != null) {
+			synchronized (skeletons) {
+				ClassSkeleton existing = skeletons.get (key);
+				if (existing != null)
+					node = existing;
+				else
+					skeletons.put (key, node);
+			}
+		}
+		return node;
+	}
+}
@@ -0,0 +1,340 @@
+/* 
+ *  Copyright (c) 2011 Xamarin Inc.
+ * 
+ *  Permission is hereby granted, free of charge, to any person 
+ *  obtaining a copy of this software and associated documentation 
+ *  files (the "Software"), to deal in the Software without restriction, 
+ *  including without limitation the rights to use, copy, modify, merge, 
+ *  publish, distribute, sublicense, and/or sell copies of the Software, 
+ *  and to permit persons to whom the Software is furnished to do so, 
+ *  subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be 
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES 
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS 
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN 
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE 
+ *  SOFTWARE.
+ */
+
+package jar2xml;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Runs jobs for clients (see jar2xml-client.sh) in a resident process, so
+// that they neither pay the JVM startup and warmup nor parse the same
+// --ref jars, doc trees and annotations again. Those are kept in a bounded
+// SharedInputs.
+//
+// A request is one line: the working directory of the client, then the
+// arguments it was given, separated by tabs; or "shutdown". The response is
+// the output of the job, each line prefixed with "O " (stdout) or "E "
+// (stderr), then "exit <status>".
+//
+// Any local user can connect to the port, so a connection first sends the
+// key the daemon wrote to ~/.jar2xml/daemon-<port>.key, which only the user
+// running it can read; the daemon writes files and shuts down for nobody
+// else.
+public class Daemon {
+
+	// the jobs (and the threads they start) write their diagnostics through these.
+	static final InheritableThreadLocal<Response> current = new InheritableThreadLocal<Response> ();
+
+	static final String [] path_options = {"--batch=", "--index=", "--deprecated=", "--jar=", "--ref=", "--out=", "--javadocpath=", "--java7docpath=", "--java7htmlpath=", "--droiddocpath=", "--annotations=", "--docindex=", "--refindex=", "--cache=", "--stats="};
+
+	// of System.out and System.err, whose lines are decoded back for the
+	// client. The protocol is UTF-8, so nothing is lost in between.
+	static final Charset encoding = Charset.forName ("UTF-8");
+
+	Start.SharedInputs shared = new Start.SharedInputs (16, 100000);
+	PrintStream stdout = System.out;
+	PrintStream stderr = System.err;
+	ServerSocket server;
+	byte [] key;
+
+	// Serves on the given port (loopback only), or on stdin/stdout for "-".
+	static int run (String [] args)
+	{
+		String address = null;
+		int jobs = Runtime.getRuntime ().availableProcessors ();
+		String usage = "Usage: jar2xml --daemon=<port>|- [--jobs=<n>]";
+		for (String arg : args) {
+			if (arg.startsWith ("--daemon="))
+				address = arg.substring (9);
+			else if (arg.startsWith ("--jobs=")) {
+				try {
+					jobs = Integer.parseInt (arg.substring (7));
+				} catch (NumberFormatException e) {
+					jobs = 0;
+				}
+			} else
+				jobs = 0;
+			if (jobs < 1) {
+				System.err.println (usage);
+				return 1;
+			}
+		}
+
+		Daemon daemon = new Daemon ();
+		try {
+			System.setOut (new PrintStream (new Router (daemon.stdout, false), true, encoding.name ()));
+			System.setErr (new PrintStream (new Router (daemon.stderr, true), true, encoding.name ()));
+			if (address.equals ("-"))
+				daemon.serve (new BufferedReader (new InputStreamReader (System.in, "UTF-8")), new OutputStreamWriter (daemon.stdout, "UTF-8"));
+			else
+				daemon.listen (Integer.parseInt (address), jobs);
+		} catch (NumberFormatException e) {
+			daemon.stderr.println (usage);
+			return 1;
+		} catch (IOException e) {
+			daemon.stderr.println ("error J2X0006: daemon failed : " + e);
+			return 1;
+		} finally {
+			System.setOut (daemon.stdout);
+			System.setErr (daemon.stderr);
+		}
+		return 0;
+	}
+
+	void listen (int port, int jobs) throws IOException
+	{
+		server = new ServerSocket (port, 50, InetAddress.getByName ("127.0.0.1"));
+		File key_file = getKeyFile (server.getLocalPort ());
+		key = writeKey (key_file);
+		ExecutorService pool = Executors.newFixedThreadPool (jobs);
+		try {
+			while (true) {
+				final Socket socket;
+				try {
+					socket = server.accept ();
+				} catch (IOException e) {
+					if (server.isClosed ())
+						break;
+					throw e;
+				}
+				pool.execute (new Runnable () {
+					public void run ()
+					{
+						try {
+							BufferedReader in = new BufferedReader (new InputStreamReader (socket.getInputStream (), "UTF-8"));
+							String line = in.readLine ();
+							if (line == null || !MessageDigest.isEqual (key, line.getBytes ("UTF-8"))) {
+								stderr.println ("warning J2X0013: rejected a daemon client without the key");
+								return;
+							}
+							serve (in, new OutputStreamWriter (socket.getOutputStream (), "UTF-8"));
+						} catch (IOException e) {
+							stderr.println ("warning J2X0007: lost daemon client : " + e);
+						} finally {
+							try {
+								socket.close ();
+							} catch (IOException e) {
+							}
+						}
+					}
+				});
+			}
+		} finally {
+			pool.shutdown ();
+			try {
+				pool.awaitTermination (1, TimeUnit.HOURS);
+			} catch (InterruptedException e) {
+			}
+			key_file.delete ();
+		}
+	}
+
+	static File getKeyFile (int port)
+	{
+		return new File (new File (System.getProperty ("user.home"), ".jar2xml"), "daemon-" + port + ".key");
+	}
+
+	// Writes a new random key to the file, readable and writable by the owner only.
+	static byte [] writeKey (File file) throws IOException
+	{
+		byte [] random = new byte [32];
+		new SecureRandom ().nextBytes (random);
+		StringBuilder key = new StringBuilder ();
+		for (byte b : random)
+			key.append (String.format ("%02x", b & 0xff));
+
+		Path path = file.toPath ();
+		Path dir = path.getParent ();
+		Files.deleteIfExists (path);
+		if (FileSystems.getDefault ().supportedFileAttributeViews ().contains ("posix")) {
+			Files.createDirectories (dir, PosixFilePermissions.asFileAttribute (PosixFilePermissions.fromString ("rwx------")));
+			Files.createFile (path, PosixFilePermissions.asFileAttribute (PosixFilePermissions.fromString ("rw-------")));
+		} else {
+			Files.createDirectories (dir);
+			Files.createFile (path);
+			file.setReadable (false, false);
+			file.setReadable (true, true);
+			file.setWritable (false, false);
+			file.setWritable (true, true);
+		}
+		Files.write (path, (key + "\n").getBytes ("UTF-8"));
+		return key.toString ().getBytes ("UTF-8");
+	}
+
+	// Runs the requests read from a client, one after another.
+	void serve (BufferedReader in, Writer out) throws IOException
+	{
+		for (String line = in.readLine (); line != null; line = in.readLine ()) {
+			if (line.equals ("shutdown")) {
+				shutdown ();
+				break;
+			}
+			String [] fields = line.split ("\t");
+			String [] args = new String [fields.length - 1];
+			for (int i = 0; i < args.length; i++)
+				args [i] = resolve (fields [0], fields [i + 1]);
+
+			Response response = new Response (out);
+			current.set (response);
+			int status;
+			try {
+				status = Start.dispatch (args, shared, fields [0]);
+			} catch (Throwable t) {
+				t.printStackTrace ();
+				status = 1;
+			} finally {
+				current.remove ();
+			}
+			response.finish (status);
+		}
+	}
+
+	void shutdown () throws IOException
+	{
+		if (server != null)
+			server.close ();
+	}
+
+	// Makes the paths of an argument relative to the client's directory.
+	static String resolve (String dir, String arg)
+	{
+		for (String option : path_options) {
+			if (!arg.startsWith (option))
+				continue;
+			String path = arg.substring (option.length ());
+			// source directories and archives come as a list.
+			if (!option.equals ("--java7docpath="))
+				return option + resolvePath (dir, path);
+			StringBuilder paths = new StringBuilder ();
+			for (String p : path.split (File.pathSeparator, -1))
+				paths.append (paths.length () > 0 ? File.pathSeparator : "").append (resolvePath (dir, p));
+			return option + paths;
+		}
+		return arg;
+	}
+
+	static String resolvePath (String dir, String path)
+	{
+		if (path.length () == 0 || new File (path).isAbsolute ())
+			return path;
+		return new File (dir, path).getPath ();
+	}
+
+	// Sends the output of a job to its client, line by line. Lines are decoded
+	// whole, so that the characters written in several pieces arrive intact.
+	static class Response {
+		Writer out;
+		ByteArrayOutputStream [] pending = {new ByteArrayOutputStream (), new ByteArrayOutputStream ()};
+
+		Response (Writer out)
+		{
+			this.out = out;
+		}
+
+		synchronized void write (boolean error, byte [] b, int off, int len)
+		{
+			ByteArrayOutputStream buffer = pending [error ? 1 : 0];
+			for (int i = off; i < off + len; i++) {
+				if (b [i] == '\n') {
+					send ((error ? "E " : "O ") + new String (buffer.toByteArray (), encoding));
+					buffer.reset ();
+				} else if (b [i] != '\r')
+					buffer.write (b [i]);
+			}
+		}
+
+		synchronized void finish (int status)
+		{
+			byte [] newline = {'\n'};
+			if (pending [0].size () > 0)
+				write (false, newline, 0, 1);
+			if (pending [1].size () > 0)
+				write (true, newline, 0, 1);
+			send ("exit " + status);
+		}
+
+		void send (String line)
+		{
+			try {
+				out.write (line + "\n");
+				out.flush ();
+			} catch (IOException e) {
+				// the client went away; the job still runs to completion.
+			}
+		}
+	}
+
+	// Replaces System.out and System.err: writes to the client of the job the
+	// current thread works for, if any.
+	static class Router extends OutputStream {
+		PrintStream fallback;
+		boolean error;
+
+		Router (PrintStream fallback, boolean error)
+		{
+			this.fallback = fallback;
+			this.error = error;
+		}
+
+		public void write (int b) throws IOException
+		{
+			write (new byte [] {(byte) b}, 0, 1);
+		}
+
+		public void write (byte [] b, int off, int len) throws IOException
+		{
+			Response response = current.get ();
+			if (response == null) {
+				fallback.write (b, off, len);
+				return;
+			}
+			response.write (error, b, off, len);
+		}
+
+		public void flush ()
+		{
+			fallback.flush ();
+		}
+	}
+}
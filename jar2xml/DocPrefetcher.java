@@ -0,0 +1,262 @@
+/* 
+ *  Copyright (c) 2011 Xamarin Inc.
+ * 
+ *  Permission is hereby granted, free of charge, to any person 
+ *  obtaining a copy of this software and associated documentation 
+ *  files (the "Software"), to deal in the Software without restriction, 
+ *  including without limitation the rights to use, copy, modify, merge, 
+ *  publish, distribute, sublicense, and/or sell copies of the Software, 
+ *  and to permit persons to whom the Software is furnished to do so, 
+ *  subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be 
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES 
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS 
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN 
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE 
+ *  SOFTWARE.
+ */
+
+
+package jar2xml;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import jar2xml.scrapers.BytecodeScraper;
+
+// Reads the docs of classes ahead of their analysis.
+//
+// JavaArchive hands each class over as soon as it is read. The scrapers that
+// implement IDocPrefetcher then read its page or source on I/O threads, all
+// at once and while other classes are analysed, and getParameterNames () in
+// JavaClass only joins their results, still asking the scrapers in their
+// configured order.
+//
+// Classes are read ahead in the order they were handed over, until reorder ()
+// gives the order of the analysis, and at most "window" of them are read
+// ahead but not yet claimed by their analysis, which bounds the pages and
+// sources held in memory. A class analysed before its turn came is read on
+// the analysis thread, as it would have been without prefetching, so that
+// the analysis never waits on the read order.
+public class DocPrefetcher {
+
+	static final int default_window = 64;
+	static final int io_threads = 8;
+
+	List<IDocScraper> scrapers;
+	ExecutorService executor;
+	int window;
+	RunStats stats;
+	Map<ClassSkeleton,Docs> docs = new IdentityHashMap<ClassSkeleton,Docs> ();
+	Queue<Docs> pending = new ArrayDeque<Docs> ();
+	int held;
+
+	// The docs of a class: the answer of each scraper, in their configured order.
+	public class Docs {
+		List<FutureTask<IDocScraper>> tasks = new ArrayList<FutureTask<IDocScraper>> ();
+		// read by each task, on the thread that ran it.
+		long [] bytesRead = new long [scrapers.size ()];
+		boolean started;
+		boolean claimed;
+
+		Docs (final ClassSkeleton asm)
+		{
+			boolean named = false;
+			for (final IDocScraper s : scrapers) {
+				final int index = tasks.size ();
+				tasks.add (named || !(s instanceof IDocPrefetcher) ? null : new FutureTask<IDocScraper> (new Callable<IDocScraper> () {
+					public IDocScraper call ()
+					{
+						RunStats.Span span = stats.beginPrefetch (s);
+						Events.DocPrefetch event = new Events.DocPrefetch ();
+						event.begin ();
+						long read = Events.getBytesRead ();
+						try {
+							return ((IDocPrefetcher) s).prefetch (asm);
+						} finally {
+							bytesRead [index] = Events.getBytesRead () - read;
+							span.end ();
+							if (event.shouldCommit ()) {
+								event.scraper = s.getClass ().getSimpleName ();
+								event.className = asm.name.replace ('/', '.');
+								event.bytesRead = bytesRead [index];
+								event.commit ();
+							}
+						}
+					}
+				}));
+				// the scrapers after it will hardly be asked, and can read then.
+				named |= s instanceof BytecodeScraper && BytecodeScraper.hasNames (asm);
+			}
+		}
+
+		public List<IDocScraper> getScrapers ()
+		{
+			return scrapers;
+		}
+
+		// Waits for the answer of the i-th scraper.
+		public IDocScraper get (int i)
+		{
+			FutureTask<IDocScraper> task = tasks.get (i);
+			if (task == null)
+				return scrapers.get (i);
+			try {
+				return task.get ();
+			} catch (InterruptedException e) {
+				Thread.currentThread ().interrupt ();
+			} catch (Exception e) {
+				// the lookups themselves run into the failure again, and report it.
+			}
+			return scrapers.get (i);
+		}
+
+		// What the i-th scraper read ahead, once: the first DocLookup event after get (i) reports it.
+		public long takeBytesRead (int i)
+		{
+			long read = bytesRead [i];
+			bytesRead [i] = 0;
+			return read;
+		}
+
+		void run ()
+		{
+			for (FutureTask<IDocScraper> task : tasks)
+				if (task != null)
+					task.run ();
+		}
+	}
+
+	DocPrefetcher (List<IDocScraper> scrapers, ExecutorService executor, int window, RunStats stats)
+	{
+		this.scrapers = scrapers;
+		this.executor = executor;
+		this.window = window;
+		this.stats = stats;
+	}
+
+	// Returns null if none of the scrapers reads ahead.
+	public static DocPrefetcher create (List<IDocScraper> scrapers, RunStats stats)
+	{
+		List<IDocScraper> list = new ArrayList<IDocScraper> (scrapers);
+		for (IDocScraper s : list)
+			if (s instanceof IDocPrefetcher)
+				return new DocPrefetcher (list, createExecutor (), default_window, stats);
+		return null;
+	}
+
+	static ExecutorService createExecutor ()
+	{
+		// the reads mostly block, which is what virtual threads (Java 21) are for.
+		try {
+			return (ExecutorService) Executors.class.getMethod ("newVirtualThreadPerTaskExecutor").invoke (null);
+		} catch (Exception e) {
+		}
+		return Executors.newFixedThreadPool (io_threads, new ThreadFactory () {
+			public Thread newThread (Runnable r)
+			{
+				Thread t = new Thread (r, "jar2xml docs");
+				t.setDaemon (true);
+				return t;
+			}
+		});
+	}
+
+	public synchronized void add (ClassSkeleton asm)
+	{
+		Docs d = new Docs (asm);
+		// a jar given twice hands its classes over twice.
+		if (docs.containsKey (asm))
+			claim (asm);
+		docs.put (asm, d);
+		pending.add (d);
+		fill ();
+	}
+
+	// Reads ahead in the given order from now on. Classes already read, but
+	// too far from the front of it, are dropped and read again in their turn.
+	public synchronized void reorder (List<ClassSkeleton> order)
+	{
+		pending.clear ();
+		int position = 0;
+		for (ClassSkeleton asm : order) {
+			Docs d = docs.get (asm);
+			if (d == null)
+				continue;
+			if (d.started && position >= window) {
+				d = new Docs (asm);
+				docs.put (asm, d);
+				held--;
+			}
+			if (!d.started)
+				pending.add (d);
+			position++;
+		}
+		fill ();
+	}
+
+	void fill ()
+	{
+		while (held < window && !pending.isEmpty ()) {
+			Docs d = pending.remove ();
+			if (d.claimed)
+				continue;
+			d.started = true;
+			held++;
+			for (FutureTask<IDocScraper> task : d.tasks)
+				if (task != null)
+					executor.execute (task);
+		}
+	}
+
+	synchronized Docs claim (ClassSkeleton asm)
+	{
+		Docs d = docs.remove (asm);
+		if (d == null)
+			return null;
+		if (d.started)
+			held--;
+		else
+			d.claimed = true;
+		fill ();
+		return d;
+	}
+
+	// Returns the docs of the class, reading them now if their turn has not come yet.
+	public Docs take (ClassSkeleton asm)
+	{
+		Docs d = claim (asm);
+		if (d == null)
+			return null;
+		stats.count (d.started ? "docs.prefetched" : "docs.inline");
+		if (!d.started)
+			d.run ();
+		return d;
+	}
+
+	// Called once the class is analysed, whether it took its docs or not.
+	public void release (ClassSkeleton asm)
+	{
+		claim (asm);
+	}
+
+	public void close ()
+	{
+		executor.shutdownNow ();
+	}
+}
@@ -0,0 +1,143 @@
+/* 
+ *  Copyright (c) 2011 Xamarin Inc.
+ * 
+ *  Permission is hereby granted, free of charge, to any person 
+ *  obtaining a copy of this software and associated documentation 
+ *  files (the "Software"), to deal in the Software without restriction, 
+ *  including without limitation the rights to use, copy, modify, merge, 
+ *  publish, distribute, sublicense, and/or sell copies of the Software, 
+ *  and to permit persons to whom the Software is furnished to do so, 
+ *  subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be 
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES 
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS 
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN 
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE 
+ *  SOFTWARE.
+ */
+
+
+package jar2xml;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// Flight Recorder events, for profiling runs with -XX:StartFlightRecording.
+//
+// Events are created, begun and checked with shouldCommit () at the call
+// sites; their fields are only computed when a recording enables them, so
+// they cost next to nothing otherwise.
+public class Events {
+
+	@Name ("jar2xml.ClassAnalysis")
+	@Label ("Class Analysis")
+	@Category ("jar2xml")
+	@Description ("Analysis of a class into its XML element, doc lookups included")
+	public static class ClassAnalysis extends Event {
+		@Label ("Class")
+		public String className;
+		@Label ("Fields")
+		public int fields;
+		@Label ("Methods")
+		public int methods;
+		@Label ("Constructors")
+		public int constructors;
+		@Label ("From Cache")
+		public boolean cached;
+	}
+
+	@Name ("jar2xml.DocLookup")
+	@Label ("Doc Lookup")
+	@Category ("jar2xml")
+	@Description ("Parameter names lookup of a method in a doc scraper")
+	public static class DocLookup extends Event {
+		@Label ("Scraper")
+		public String scraper;
+		@Label ("Class")
+		public String className;
+		@Label ("Method")
+		public String method;
+		@Label ("Hit")
+		public boolean hit;
+		@Label ("Bytes Read")
+		@DataAmount
+		public long bytesRead;
+	}
+
+	@Name ("jar2xml.DocPrefetch")
+	@Label ("Doc Prefetch")
+	@Category ("jar2xml")
+	@Description ("Reading of the doc page or source of a class ahead of its analysis, on an I/O thread")
+	public static class DocPrefetch extends Event {
+		@Label ("Scraper")
+		public String scraper;
+		@Label ("Class")
+		public String className;
+		@Label ("Bytes Read")
+		@DataAmount
+		public long bytesRead;
+	}
+
+	@Name ("jar2xml.JarScan")
+	@Label ("Jar Scan")
+	@Category ("jar2xml")
+	@Description ("Reading and loading the classes of a jar")
+	public static class JarScan extends Event {
+		@Label ("Path")
+		public String path;
+		@Label ("Classes")
+		public int classes;
+		@Label ("Compressed Size")
+		@DataAmount
+		public long compressedSize;
+	}
+
+	@Name ("jar2xml.ElementWrite")
+	@Label ("Element Write")
+	@Category ("jar2xml")
+	@Description ("Serialization of a class element to the output")
+	public static class ElementWrite extends Event {
+		@Label ("Name")
+		public String name;
+	}
+
+	@Name ("jar2xml.OutputClose")
+	@Label ("Output Close")
+	@Category ("jar2xml")
+	@Description ("End of the output document, with its size")
+	public static class OutputClose extends Event {
+		@Label ("Path")
+		public String path;
+		@Label ("Size")
+		@DataAmount
+		public long size;
+	}
+
+	// Bytes of doc pages and sources read by the current thread, for DocLookup and DocPrefetch.
+	static final ThreadLocal<long []> bytes_read = new ThreadLocal<long []> () {
+		protected long [] initialValue ()
+		{
+			return new long [1];
+		}
+	};
+
+	public static void fileRead (long bytes)
+	{
+		bytes_read.get () [0] += bytes;
+	}
+
+	public static long getBytesRead ()
+	{
+		return bytes_read.get () [0];
+	}
+}
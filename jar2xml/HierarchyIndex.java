@@ -0,0 +1,216 @@
+/* 
+ *  Copyright (c) 2011 Xamarin Inc.
+ * 
+ *  Permission is hereby granted, free of charge, to any person 
+ *  obtaining a copy of this software and associated documentation 
+ *  files (the "Software"), to deal in the Software without restriction, 
+ *  including without limitation the rights to use, copy, modify, merge, 
+ *  publish, distribute, sublicense, and/or sell copies of the Software, 
+ *  and to permit persons to whom the Software is furnished to do so, 
+ *  subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be 
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES 
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS 
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN 
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE 
+ *  SOFTWARE.
+ */
+
+package jar2xml;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.objectweb.asm.Opcodes;
+
+// Answers the override questions of doAppendToDocument () for the classes of
+// a run: which ancestor nearest declares a method signature, and whether a
+// class and all its superclasses are public.
+//
+// Each class's declared methods are indexed by signature once, and answers
+// are remembered per class, so that the subclasses of a deep hierarchy share
+// them instead of walking it (and throwing NoSuchMethodException) again.
+// Lookups walk the superclasses in the same order, and only as far, as the
+// getDeclaredMethod () loop they replace did.
+public abstract class HierarchyIndex<C,M> {
+
+	// A method, with the class declaring it.
+	public static class Declaration<C,M> {
+		public final C owner;
+		public final M method;
+
+		Declaration (C owner, M method)
+		{
+			this.owner = owner;
+			this.method = method;
+		}
+	}
+
+	// Remembered for the signatures no ancestor declares.
+	private final Declaration<C,M> none = new Declaration<C,M> (null, null);
+
+	static class Entry<C,M> {
+		Map<String,Declaration<C,M>> declared;
+		Map<String,Declaration<C,M>> nearest = new ConcurrentHashMap<String,Declaration<C,M>> ();
+		Boolean publicChain;
+	}
+
+	Map<C,Entry<C,M>> entries = new ConcurrentHashMap<C,Entry<C,M>> ();
+
+	protected abstract C getSuperclass (C c);
+
+	protected abstract int getModifiers (C c);
+
+	protected abstract M [] getDeclaredMethods (C c);
+
+	protected abstract String getSignature (M m);
+
+	// Which of two methods of the same signature getDeclaredMethod () returns.
+	protected abstract M prefer (M current, M candidate);
+
+	Entry<C,M> getEntry (C c)
+	{
+		Entry<C,M> entry = entries.get (c);
+		if (entry == null) {
+			entry = new Entry<C,M> ();
+			Entry<C,M> existing = ((ConcurrentHashMap<C,Entry<C,M>>) entries).putIfAbsent (c, entry);
+			if (existing != null)
+				entry = existing;
+		}
+		return entry;
+	}
+
+	Map<String,Declaration<C,M>> getDeclared (C c, Entry<C,M> entry)
+	{
+		Map<String,Declaration<C,M>> declared = entry.declared;
+		if (declared == null) {
+			// errors (missing classes) propagate, and are raised again on the next lookup.
+			declared = new HashMap<String,Declaration<C,M>> ();
+			for (M m : getDeclaredMethods (c)) {
+				String sig = getSignature (m);
+				Declaration<C,M> current = declared.get (sig);
+				if (current == null || prefer (current.method, m) != current.method)
+					declared.put (sig, new Declaration<C,M> (c, m));
+			}
+			entry.declared = declared;
+		}
+		return declared;
+	}
+
+	// The method of the given signature declared by c or its nearest superclass declaring it, or null.
+	public Declaration<C,M> getNearestDeclaration (C c, String sig)
+	{
+		if (c == null)
+			return null;
+		Entry<C,M> entry = getEntry (c);
+		Declaration<C,M> result = entry.nearest.get (sig);
+		if (result == null) {
+			result = getDeclared (c, entry).get (sig);
+			if (result == null) {
+				result = getNearestDeclaration (getSuperclass (c), sig);
+				if (result == null)
+					result = none;
+			}
+			entry.nearest.put (sig, result);
+		}
+		return result == none ? null : result;
+	}
+
+	public boolean isInPublicInheritanceChain (C c)
+	{
+		if (c == null)
+			return true;
+		Entry<C,M> entry = getEntry (c);
+		if (entry.publicChain == null)
+			entry.publicChain = (getModifiers (c) & Modifier.PUBLIC) != 0 && isInPublicInheritanceChain (getSuperclass (c));
+		return entry.publicChain;
+	}
+
+	// For the reflection engine.
+	public static class Reflection extends HierarchyIndex<Class<?>,Method> {
+
+		protected Class<?> getSuperclass (Class<?> c)
+		{
+			return c.getSuperclass ();
+		}
+
+		protected int getModifiers (Class<?> c)
+		{
+			return c.getModifiers ();
+		}
+
+		protected Method [] getDeclaredMethods (Class<?> c)
+		{
+			return c.getDeclaredMethods ();
+		}
+
+		protected String getSignature (Method m)
+		{
+			return getSignature (m.getName (), m.getParameterTypes ());
+		}
+
+		public static String getSignature (String name, Class<?> [] ptypes)
+		{
+			StringBuilder sig = new StringBuilder (name).append ('(');
+			for (Class<?> t : ptypes)
+				sig.append (t.getName ()).append (',');
+			return sig.toString ();
+		}
+
+		// Class.getDeclaredMethod () returns the one with the most specific return type.
+		protected Method prefer (Method current, Method candidate)
+		{
+			return current.getReturnType ().isAssignableFrom (candidate.getReturnType ()) ? candidate : current;
+		}
+	}
+
+	// For the ASM engine; classes are looked up by the resolver.
+	public static class Asm extends HierarchyIndex<ClassSkeleton,ClassSkeleton.Method> {
+		ClassResolver resolver;
+
+		public Asm (ClassResolver resolver)
+		{
+			this.resolver = resolver;
+		}
+
+		protected ClassSkeleton getSuperclass (ClassSkeleton c)
+		{
+			return c.superName != null ? resolver.get (c.superName) : null;
+		}
+
+		protected int getModifiers (ClassSkeleton c)
+		{
+			return c.modifiers;
+		}
+
+		protected ClassSkeleton.Method [] getDeclaredMethods (ClassSkeleton c)
+		{
+			return c.methods;
+		}
+
+		protected String getSignature (ClassSkeleton.Method m)
+		{
+			return getSignature (m.name, m.desc);
+		}
+
+		public static String getSignature (String name, String desc)
+		{
+			return name + desc.substring (0, desc.indexOf (')') + 1);
+		}
+
+		// Like Class.getDeclaredMethod (): among bridges and the bridged method, the latter wins.
+		protected ClassSkeleton.Method prefer (ClassSkeleton.Method current, ClassSkeleton.Method candidate)
+		{
+			return (current.access & Opcodes.ACC_BRIDGE) != 0 ? candidate : current;
+		}
+	}
+}
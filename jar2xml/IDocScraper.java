@@ -25,10 +25,9 @@
 package jar2xml;
 
 import java.lang.reflect.Type;
-import org.objectweb.asm.tree.ClassNode;
 
 public interface IDocScraper {
 
-	String[] getParameterNames (ClassNode declarer, String name, Type[] ptypes, boolean isVarArgs);
+	String[] getParameterNames (ClassSkeleton declarer, String name, Type[] ptypes, boolean isVarArgs);
 
 }
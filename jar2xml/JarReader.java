@@ -0,0 +1,303 @@
+/* 
+ *  Copyright (c) 2011 Xamarin Inc.
+ * 
+ *  Permission is hereby granted, free of charge, to any person 
+ *  obtaining a copy of this software and associated documentation 
+ *  files (the "Software"), to deal in the Software without restriction, 
+ *  including without limitation the rights to use, copy, modify, merge, 
+ *  publish, distribute, sublicense, and/or sell copies of the Software, 
+ *  and to permit persons to whom the Software is furnished to do so, 
+ *  subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be 
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES 
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS 
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN 
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE 
+ *  SOFTWARE.
+ */
+
+
+package jar2xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+// A jar (or any zip archive) mapped in memory, in place of JarFile.
+//
+// The central directory is walked once, when the archive is opened, and the
+// file is closed right after mapping it. Entries are then inflated straight
+// from the mapping with pooled Inflaters: reads take no lock, so that the
+// classes of a jar can be inflated by several threads at once, and each entry
+// is inflated into an array of its exact size, which callers may hand both
+// to a ClassReader and to a class loader.
+//
+// Archives of 2GB or more, split ones and encrypted entries are not supported.
+public class JarReader {
+
+	static final int local_header = 0x04034b50;
+	static final int central_header = 0x02014b50;
+	static final int end_record = 0x06054b50;
+	static final int zip64_end_record = 0x06064b50;
+	static final int zip64_end_locator = 0x07064b50;
+	static final int end_record_size = 22;
+	static final Charset utf8 = Charset.forName ("UTF-8");
+
+	public static class Entry {
+		final String name;
+		final int method;
+		final int flags;
+		final long crc;
+		final long size;
+		final long compressedSize;
+		final long offset;
+
+		Entry (String name, int method, int flags, long crc, long size, long compressedSize, long offset)
+		{
+			this.name = name;
+			this.method = method;
+			this.flags = flags;
+			this.crc = crc;
+			this.size = size;
+			this.compressedSize = compressedSize;
+			this.offset = offset;
+		}
+
+		public String getName ()
+		{
+			return name;
+		}
+
+		public long getCrc ()
+		{
+			return crc;
+		}
+
+		public long getSize ()
+		{
+			return size;
+		}
+
+		public long getCompressedSize ()
+		{
+			return compressedSize;
+		}
+
+		public boolean isDirectory ()
+		{
+			return name.endsWith ("/");
+		}
+	}
+
+	final File file;
+	volatile ByteBuffer buffer;
+	final List<Entry> entries = new ArrayList<Entry> ();
+	final Map<String,Entry> names = new HashMap<String,Entry> ();
+	final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater> ();
+
+	public JarReader (File file) throws IOException
+	{
+		this (file, true);
+	}
+
+	// Without readDirectory, the archive is only mapped: entries are then
+	// read by their location, as a RefIndex records them.
+	JarReader (File file, boolean readDirectory) throws IOException
+	{
+		this.file = file;
+		RandomAccessFile raf = new RandomAccessFile (file, "r");
+		try {
+			FileChannel channel = raf.getChannel ();
+			if (channel.size () > Integer.MAX_VALUE)
+				throw new ZipException (file + " is too large to be mapped");
+			buffer = channel.map (FileChannel.MapMode.READ_ONLY, 0, channel.size ()).order (ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			// the mapping stays valid.
+			raf.close ();
+		}
+		if (readDirectory)
+			readCentralDirectory ();
+	}
+
+	public JarReader (String filename) throws IOException
+	{
+		this (new File (filename));
+	}
+
+	public String getName ()
+	{
+		return file.getPath ();
+	}
+
+	public File getFile ()
+	{
+		return file;
+	}
+
+	// All the entries, in the order of the central directory (that of JarFile.entries ()).
+	public List<Entry> entries ()
+	{
+		return Collections.unmodifiableList (entries);
+	}
+
+	// The entry of the given name, or null.
+	public Entry getEntry (String name)
+	{
+		return names.get (name);
+	}
+
+	void readCentralDirectory () throws IOException
+	{
+		ByteBuffer b = buffer;
+		int end = -1;
+		for (int i = b.capacity () - end_record_size; i >= 0 && i >= b.capacity () - end_record_size - 0xffff; i--)
+			if (b.getInt (i) == end_record) {
+				end = i;
+				break;
+			}
+		if (end < 0)
+			throw new ZipException (file + " is not a zip archive");
+
+		long count = b.getShort (end + 10) & 0xffff;
+		long offset = b.getInt (end + 16) & 0xffffffffL;
+		if (end >= 20 && b.getInt (end - 20) == zip64_end_locator) {
+			long record = b.getLong (end - 12);
+			if (record < 0 || record > end - 56 || b.getInt ((int) record) != zip64_end_record)
+				throw new ZipException (file + " has an invalid zip64 end record");
+			count = b.getLong ((int) record + 32);
+			offset = b.getLong ((int) record + 48);
+		}
+
+		int p = checkOffset (offset);
+		for (long i = 0; i < count; i++) {
+			if (p + 46 > b.capacity () || b.getInt (p) != central_header)
+				throw new ZipException (file + " has an invalid central directory");
+			int flags = b.getShort (p + 8) & 0xffff;
+			int method = b.getShort (p + 10) & 0xffff;
+			long crc = b.getInt (p + 16) & 0xffffffffL;
+			long compressed = b.getInt (p + 20) & 0xffffffffL;
+			long size = b.getInt (p + 24) & 0xffffffffL;
+			int nameLength = b.getShort (p + 28) & 0xffff;
+			int extraLength = b.getShort (p + 30) & 0xffff;
+			int commentLength = b.getShort (p + 32) & 0xffff;
+			long local = b.getInt (p + 42) & 0xffffffffL;
+			byte [] name = new byte [nameLength];
+			for (int j = 0; j < nameLength; j++)
+				name [j] = b.get (p + 46 + j);
+
+			// zip64 extended information: only the fields that overflowed, in this order.
+			for (int x = p + 46 + nameLength; x + 4 <= p + 46 + nameLength + extraLength; ) {
+				int id = b.getShort (x) & 0xffff;
+				int length = b.getShort (x + 2) & 0xffff;
+				if (id == 1) {
+					int v = x + 4;
+					if (size == 0xffffffffL && v + 8 <= x + 4 + length) {
+						size = b.getLong (v);
+						v += 8;
+					}
+					if (compressed == 0xffffffffL && v + 8 <= x + 4 + length) {
+						compressed = b.getLong (v);
+						v += 8;
+					}
+					if (local == 0xffffffffL && v + 8 <= x + 4 + length)
+						local = b.getLong (v);
+				}
+				x += 4 + length;
+			}
+
+			Entry entry = new Entry (new String (name, utf8), method, flags, crc, size, compressed, local);
+			entries.add (entry);
+			if (!names.containsKey (entry.name))
+				names.put (entry.name, entry);
+			p += 46 + nameLength + extraLength + commentLength;
+		}
+	}
+
+	int checkOffset (long offset) throws ZipException
+	{
+		if (offset < 0 || offset >= buffer.capacity ())
+			throw new ZipException (file + " has an entry out of the archive");
+		return (int) offset;
+	}
+
+	// Inflates the entry.
+	public byte [] read (Entry entry) throws IOException
+	{
+		ByteBuffer b = buffer;
+		if (b == null)
+			throw new IOException (file + " is closed");
+		if ((entry.flags & 1) != 0)
+			throw new ZipException (file + "!/" + entry.name + " is encrypted");
+		if (entry.size > Integer.MAX_VALUE)
+			throw new ZipException (file + "!/" + entry.name + " is too large");
+
+		int header = checkOffset (entry.offset);
+		if (b.getInt (header) != local_header)
+			throw new ZipException (file + "!/" + entry.name + " has an invalid local header");
+		int start = checkOffset (header + 30L + (b.getShort (header + 26) & 0xffff) + (b.getShort (header + 28) & 0xffff));
+		if (start + entry.compressedSize > b.capacity ())
+			throw new ZipException (file + "!/" + entry.name + " is truncated");
+
+		// an absolute view of the data, since the buffer is shared by the threads.
+		ByteBuffer data = b.duplicate ();
+		data.position (start);
+		data.limit (start + (int) entry.compressedSize);
+		byte [] bytes = new byte [(int) entry.size];
+		if (entry.method == 0) {
+			data.get (bytes);
+			return bytes;
+		}
+		if (entry.method != 8)
+			throw new ZipException (file + "!/" + entry.name + " uses an unsupported compression method (" + entry.method + ")");
+
+		Inflater inflater = inflaters.poll ();
+		if (inflater == null)
+			inflater = new Inflater (true);
+		try {
+			inflater.setInput (data);
+			int n = 0;
+			while (n < bytes.length) {
+				int inflated = inflater.inflate (bytes, n, bytes.length - n);
+				if (inflated == 0 && (inflater.finished () || inflater.needsInput () || inflater.needsDictionary ()))
+					throw new ZipException (file + "!/" + entry.name + " is shorter than its recorded size");
+				n += inflated;
+			}
+			return bytes;
+		} catch (DataFormatException e) {
+			throw new ZipException (file + "!/" + entry.name + " : " + e.getMessage ());
+		} finally {
+			inflater.reset ();
+			if (buffer != null)
+				inflaters.add (inflater);
+			else
+				inflater.end ();
+		}
+	}
+
+	// Frees the pooled Inflaters at once; the mapping goes away with its last reference.
+	public void close ()
+	{
+		buffer = null;
+		for (Inflater inflater; (inflater = inflaters.poll ()) != null; )
+			inflater.end ();
+	}
+}
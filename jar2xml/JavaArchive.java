@@ -25,80 +25,532 @@
 package jar2xml;
 
 import java.io.File;
-import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLClassLoader;
-import java.util.jar.JarFile;
-import java.util.jar.JarEntry;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import org.objectweb.asm.*;
-import org.objectweb.asm.tree.*;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import jar2xml.scrapers.DeprecatedMembers;
 
 public class JavaArchive {
 
-	private List<JarFile> files = new ArrayList<JarFile> ();
-	private ClassLoader loader;
+	private List<JarReader> files = new ArrayList<JarReader> ();
+	private Loader loader;
+	private List<JarReader> refFiles = new ArrayList<JarReader> ();
+	private RefIndex refIndex;
+	private ClassStore store;
+	private Map<String,ClassSkeleton> classes = new ConcurrentHashMap<String,ClassSkeleton> ();
+	private List<IDocScraper> scrapers = new CopyOnWriteArrayList<IDocScraper> ();
+	private DeprecatedMembers deprecatedMembers;
+	private ClassResolver resolver;
+	private HierarchyIndex.Reflection reflectionHierarchy = new HierarchyIndex.Reflection ();
+	private HierarchyIndex.Asm asmHierarchy;
+	private ApiCache cache;
+	private ExecutorService pool;
+	private DocPrefetcher prefetcher;
+	private boolean parameterNames;
+	private Duplicates duplicates = Duplicates.FIRST;
+	private List<ClassFile> classFiles;
+	private int conflicts;
+	private RunStats stats = RunStats.none;
+	// Reflection's generic types, by identity, to their getGenericTypeName () text.
+	private Map<Type,String> typeNames = Collections.synchronizedMap (new IdentityHashMap<Type,String> ());
 
 	public JavaArchive (List<String> filenames, List<String> additionalJars) throws Exception
 	{
-		List<URL> urls = new ArrayList<URL> ();
-		for (String filename : filenames) {
-			files.add (new JarFile (filename));
-			urls.add (new File (filename).getAbsoluteFile ().toURL ());
+		this (filenames, additionalJars, null, new ClassStore ());
+	}
+
+	public JavaArchive (List<String> filenames, List<String> additionalJars, ClassStore store) throws Exception
+	{
+		this (filenames, additionalJars, null, store);
+	}
+
+	// Reference classes are looked up in refIndex, if not null, before the additional jars.
+	public JavaArchive (List<String> filenames, List<String> additionalJars, RefIndex refIndex, ClassStore store) throws Exception
+	{
+		this.store = store;
+		this.refIndex = refIndex;
+		try {
+			for (String filename : filenames)
+				files.add (new JarReader (filename));
+			for (String additionalJar : additionalJars)
+				refFiles.add (new JarReader (additionalJar));
+		} catch (Exception e) {
+			close ();
+			throw e;
 		}
-		for (String additionalJar : additionalJars)
-			urls.add (new File (additionalJar).getAbsoluteFile ().toURL ());
-		URL [] urlsArray = new URL [urls.size ()];
-		urls.toArray (urlsArray);
-		loader = new URLClassLoader (urlsArray, JavaArchive.class.getClassLoader ());
+		loader = new Loader (files, refIndex, refFiles, JavaArchive.class.getClassLoader ());
+	}
+
+	public void close ()
+	{
+		for (JarReader file : files)
+			file.close ();
+		for (JarReader file : refFiles)
+			file.close ();
+		if (prefetcher != null)
+			prefetcher.close ();
+		typeNames.clear ();
+	}
+
+	public Map<Type,String> getTypeNames ()
+	{
+		return typeNames;
+	}
+
+	public void setExecutor (ExecutorService pool)
+	{
+		this.pool = pool;
+	}
+
+	// Reflection returns constructors in an order that depends on VM internals
+	// and changes when classes are loaded concurrently, so they are sorted then.
+	// The sequential output keeps the reflection order, as it always had; the
+	// asm engine always sorts them.
+	boolean sortsConstructors ()
+	{
+		return pool != null;
+	}
+
+	// Describes the classes from their bytecode only, instead of loading them.
+	public void setAsmEngine (boolean value)
+	{
+		resolver = value ? new ClassResolver (classes, refIndex, refFiles, store) : null;
+		asmHierarchy = value ? new HierarchyIndex.Asm (resolver) : null;
+	}
+
+	// Reads the parameter names recorded in the class files (see BytecodeScraper).
+	public void setParameterNames (boolean value)
+	{
+		parameterNames = value;
+	}
+
+	public void setCache (ApiCache cache)
+	{
+		this.cache = cache;
+		cache.setReferences (classes, refIndex, refFiles, store);
+		cache.setDocScrapers (scrapers);
+	}
+
+	public ApiCache getCache ()
+	{
+		return cache;
+	}
+
+	public void setStats (RunStats stats)
+	{
+		this.stats = stats;
+	}
+
+	public RunStats getStats ()
+	{
+		return stats;
+	}
+
+	public void addDocScraper (IDocScraper scraper)
+	{
+		scrapers.add (scraper);
+	}
+
+	public List<IDocScraper> getDocScrapers ()
+	{
+		return scrapers;
+	}
+
+	public void setDeprecatedMembers (DeprecatedMembers value)
+	{
+		deprecatedMembers = value;
+	}
+
+	public DeprecatedMembers getDeprecatedMembers ()
+	{
+		return deprecatedMembers;
+	}
+
+	// null unless the docs are read ahead.
+	DocPrefetcher getPrefetcher ()
+	{
+		return prefetcher;
+	}
+
+	ClassResolver getResolver ()
+	{
+		return resolver;
+	}
+
+	// Shared by the classes of the archive, one per engine.
+	HierarchyIndex.Reflection getReflectionHierarchy ()
+	{
+		return reflectionHierarchy;
+	}
+
+	// Null unless the asm engine is used.
+	HierarchyIndex.Asm getAsmHierarchy ()
+	{
+		return asmHierarchy;
+	}
+
+	// Skeletons of the classes of the archive, by internal name.
+	public Map<String,ClassSkeleton> getClasses ()
+	{
+		return classes;
+	}
+
+	// How a class found with different contents in several jars is resolved.
+	public enum Duplicates {
+		// the class of the first jar that has it, as a class path would.
+		FIRST,
+		LAST,
+		// the run fails.
+		ERROR
+	}
+
+	public void setDuplicates (Duplicates value)
+	{
+		duplicates = value;
+	}
+
+	// A class file to analyse.
+	static class ClassFile {
+		final JarReader file;
+		final JarReader.Entry entry;
+
+		ClassFile (JarReader file, JarReader.Entry entry)
+		{
+			this.file = file;
+			this.entry = entry;
+		}
+	}
+
+	// Lists the class files of the jars, each class once, and reports the
+	// classes found in several jars. Copies are compared by the CRC and size
+	// their jars record, so nothing is inflated; identical ones are analysed
+	// once, and the duplicates policy picks among different ones. Returns
+	// the number of classes with different copies.
+	public int scan ()
+	{
+		if (classFiles != null)
+			return conflicts;
+
+		Map<String,List<ClassFile>> copies = new LinkedHashMap<String,List<ClassFile>> ();
+		for (JarReader file : files)
+			for (JarReader.Entry entry : file.entries ()) {
+				String name = entry.getName ();
+				if (!name.endsWith (".class"))
+					continue;
+				name = name.substring (0, name.length () - 6);
+				List<ClassFile> list = copies.get (name);
+				if (list == null) {
+					list = new ArrayList<ClassFile> (1);
+					copies.put (name, list);
+				}
+				list.add (new ClassFile (file, entry));
+			}
+
+		classFiles = new ArrayList<ClassFile> (copies.size ());
+		// classes shared by each pair of jars, and how many of them differ.
+		Map<String,int []> overlaps = new TreeMap<String,int []> ();
+		int duplicated = 0;
+		for (Map.Entry<String,List<ClassFile>> e : copies.entrySet ()) {
+			List<ClassFile> list = e.getValue ();
+			ClassFile chosen = list.get (duplicates == Duplicates.LAST ? list.size () - 1 : 0);
+			classFiles.add (chosen);
+			if (list.size () == 1)
+				continue;
+
+			duplicated++;
+			stats.count ("classes.duplicated");
+			String fingerprint = ClassStore.getFingerprint (list.get (0).entry);
+			boolean differ = false;
+			for (ClassFile c : list)
+				differ |= fingerprint == null || !fingerprint.equals (ClassStore.getFingerprint (c.entry));
+			for (int i = 1; i < list.size (); i++) {
+				String pair = list.get (0).file.getName () + " and " + list.get (i).file.getName ();
+				int [] count = overlaps.get (pair);
+				if (count == null)
+					overlaps.put (pair, count = new int [2]);
+				count [0]++;
+				if (differ)
+					count [1]++;
+			}
+			if (!differ)
+				continue;
+
+			conflicts++;
+			stats.count ("classes.conflicting");
+			StringBuilder jars = new StringBuilder ();
+			for (ClassFile c : list)
+				jars.append (jars.length () > 0 ? ", " : "").append (c.file.getName ());
+			if (duplicates == Duplicates.ERROR)
+				System.err.println ("error J2X0010: Class " + e.getKey () + " differs between " + jars);
+			else {
+				System.err.println ("warning J2X9003: Class " + e.getKey () + " differs between " + jars + "; taking the one of " + chosen.file.getName ());
+				// so that the loader defines it, and the classes it loads ahead, from the same jar.
+				if (chosen != list.get (0))
+					loader.owners.put (e.getKey (), chosen.file);
+			}
+		}
+
+		if (duplicated > 0) {
+			System.err.println ("note: " + duplicated + " classes are in more than one jar, " + conflicts + " of them with different contents:");
+			for (Map.Entry<String,int []> e : overlaps.entrySet ())
+				System.err.println ("note:   " + e.getKey () + " share " + e.getValue () [0] + " classes, " + e.getValue () [1] + " different");
+		}
+		return conflicts;
 	}
 
 	public List<JavaPackage> getPackages ()
 	{
 		HashMap<String, JavaPackage> packages = new HashMap <String, JavaPackage> ();
-		for (JarFile file : files)
-			getPackages (packages, file);
+		// with a cache, most classes will not look their docs up at all.
+		if (cache == null && prefetcher == null)
+			prefetcher = DocPrefetcher.create (scrapers, stats);
+		scan ();
+
+		// the classes of all the jars are loaded together.
+		Map<JarReader,Events.JarScan> events = new HashMap<JarReader,Events.JarScan> ();
+		for (JarReader file : files) {
+			Events.JarScan event = new Events.JarScan ();
+			event.begin ();
+			events.put (file, event);
+		}
+		stats.addClassFiles (classFiles.size ());
+		try {
+			loadClasses (packages, classFiles);
+		} finally {
+			for (ClassFile c : classFiles) {
+				Events.JarScan event = events.get (c.file);
+				event.classes++;
+				event.compressedSize += c.entry.getCompressedSize ();
+			}
+			for (JarReader file : files) {
+				Events.JarScan event = events.get (file);
+				if (event.shouldCommit ()) {
+					event.path = file.getName ();
+					event.commit ();
+				}
+			}
+		}
+		// classes of the jars read ahead by the loader, but not looked at since, are read again if needed.
+		loader.endScan ();
 
 		ArrayList<JavaPackage> result = new ArrayList<JavaPackage> (packages.values ());
 		Collections.sort (result);
+		if (prefetcher != null) {
+			// from now on, the docs are read ahead in the order of the analysis.
+			List<ClassSkeleton> order = new ArrayList<ClassSkeleton> ();
+			for (JavaPackage pkg : result) {
+				List<JavaClass> sorted = new ArrayList<JavaClass> (pkg.getClasses ());
+				Collections.sort (sorted);
+				for (JavaClass c : sorted)
+					order.add (c.asm);
+			}
+			prefetcher.reorder (order);
+		}
 		return result;
 	}
 
-	void getPackages (HashMap<String, JavaPackage> packages, JarFile file)
+	// With an executor, the classes are also inflated in parallel: JarReader takes no lock.
+	void loadClasses (HashMap<String, JavaPackage> packages, List<ClassFile> classFiles)
 	{
-		Enumeration<JarEntry> entries = file.entries ();
-		while (entries.hasMoreElements ()) {
-			JarEntry entry = entries.nextElement ();
-			String name = entry.getName ();
-			if (name.endsWith (".class")) {
-				name = name.substring (0, name.length () - 6);
+		if (pool == null) {
+			for (ClassFile c : classFiles)
+				addClass (packages, c.entry, loadClass (c.file, c.entry));
+			return;
+		}
+
+		// Classes are loaded concurrently, but added in jar and entry order so
+		// that the (stable) sort of each package does not depend on thread scheduling.
+		List<Future<JavaClass>> results = new ArrayList<Future<JavaClass>> ();
+		for (final ClassFile c : classFiles)
+			results.add (pool.submit (new Callable<JavaClass> () {
+				public JavaClass call ()
+				{
+					return loadClass (c.file, c.entry);
+				}
+			}));
+		for (int i = 0; i < classFiles.size (); i++) {
+			try {
+				addClass (packages, classFiles.get (i).entry, results.get (i).get ());
+			} catch (Exception e) {
+				throw new RuntimeException (e);
+			}
+		}
+	}
+
+	JavaClass loadClass (JarReader file, JarReader.Entry entry)
+	{
+		String name = entry.getName ();
+		name = name.substring (0, name.length () - 6);
+		try {
+			RunStats.Span span = stats.begin ("read");
+			// reflection defines the class from the very bytes its skeleton is read from.
+			byte [] bytes = resolver == null ? loader.read (name, file, entry) : null;
+			ClassSkeleton node = store.get (file, entry, parameterNames, bytes);
+			span.end ();
+			classes.put (node.name, node);
+			if (cache != null)
+				cache.addClass (node.name, ClassStore.getFingerprint (entry));
+
+			if (resolver != null) {
+				stats.classLoaded ();
+				return new AsmJavaClass (node, this);
+			}
+			span = stats.begin ("load");
+			Class c = loader.load (name, bytes);
+			span.end ();
+			stats.classLoaded ();
+			return new JavaClass (c, node, this);
+		} catch (Throwable t) {
+			t.printStackTrace ();
+			System.err.println ("warning J2X9001: Couldn't load class " + name + " : " + t);
+			return null;
+		}
+	}
+
+	void addClass (HashMap<String, JavaPackage> packages, JarReader.Entry entry, JavaClass c)
+	{
+		if (c == null)
+			return;
+		String name = entry.getName ();
+		name = name.substring (0, name.length () - 6);
+		String pkgname;
+		try {
+			//String pkgname = c.getPackage ().getName ();
+			pkgname = name.substring (0, name.lastIndexOf ('/')).replace ('/', '.');
+		} catch (Throwable t) {
+			t.printStackTrace ();
+			System.err.println ("warning J2X9001: Couldn't load class " + name + " : " + t);
+			return;
+		}
+
+		JavaPackage pkg = packages.get (pkgname);
+		if (pkg == null) {
+			pkg = new JavaPackage (pkgname);
+			packages.put (pkgname, pkg);
+		}
+		pkg.addClass (c);
+		if (prefetcher != null)
+			prefetcher.add (c.asm);
+	}
+
+	// Defines the classes of the jars, then of the reference jars, like a
+	// URLClassLoader over them would, but from the bytes JavaArchive has
+	// already inflated for the skeletons. Classes it has to define ahead of
+	// their turn (superclasses, mostly) are kept for JavaArchive until the
+	// jars are scanned, so that no class file is inflated twice.
+	static class Loader extends ClassLoader {
+		static {
+			registerAsParallelCapable ();
+		}
+
+		final List<JarReader> files;
+		final RefIndex refIndex;
+		final List<JarReader> refs;
+		// the class being loaded by JavaArchive, by internal name.
+		final Map<String,byte []> offered = new ConcurrentHashMap<String,byte []> ();
+		// classes of the jars defined ahead, by internal name.
+		final Map<String,byte []> ahead = new ConcurrentHashMap<String,byte []> ();
+		// the jar to define a class from, if not the first one that has it.
+		final Map<String,JarReader> owners = new ConcurrentHashMap<String,JarReader> ();
+		volatile boolean scanning = true;
+
+		Loader (List<JarReader> files, RefIndex refIndex, List<JarReader> refs, ClassLoader parent)
+		{
+			super (parent);
+			this.files = files;
+			this.refIndex = refIndex;
+			this.refs = refs;
+		}
+
+		// The class file of a class of the jars.
+		byte [] read (String name, JarReader file, JarReader.Entry entry) throws Exception
+		{
+			byte [] bytes = ahead.remove (name);
+			return bytes != null ? bytes : file.read (entry);
+		}
+
+		Class load (String name, byte [] bytes) throws ClassNotFoundException
+		{
+			offered.put (name, bytes);
+			try {
+				return loadClass (name.replace ('/', '.'));
+			} finally {
+				offered.remove (name);
+			}
+		}
+
+		void endScan ()
+		{
+			scanning = false;
+			ahead.clear ();
+		}
+
+		protected Class<?> findClass (String className) throws ClassNotFoundException
+		{
+			String name = className.replace ('.', '/');
+			byte [] bytes = offered.get (name);
+			if (bytes == null) {
 				try {
-					InputStream stream = file.getInputStream (entry);
-					ClassReader reader = new ClassReader (stream);
-					ClassNode node = new ClassNode ();
-					reader.accept (node, 0);
-					JavaClass.asmClasses.put (node.name, node);
-					
-					Class c = loader.loadClass (name.replace ('/', '.'));
-					//String pkgname = c.getPackage ().getName ();
-					String pkgname = name.substring (0, name.lastIndexOf ('/')).replace ('/', '.');
-
-					JavaPackage pkg = packages.get (pkgname);
-					if (pkg == null) {
-						pkg = new JavaPackage (pkgname);
-						packages.put (pkgname, pkg);
-					}
-					pkg.addClass (new JavaClass (c, node));
-				} catch (Throwable t) {
-					t.printStackTrace ();
-					System.err.println ("warning J2X9001: Couldn't load class " + name + " : " + t);
+					bytes = find (name);
+				} catch (Exception e) {
+					throw new ClassNotFoundException (className, e);
 				}
 			}
+			if (bytes == null)
+				throw new ClassNotFoundException (className);
+			return defineClass (className, bytes, 0, bytes.length);
+		}
+
+		byte [] find (String name) throws Exception
+		{
+			JarReader owner = owners.get (name);
+			for (JarReader file : owner != null ? Collections.singletonList (owner) : files) {
+				JarReader.Entry entry = file.getEntry (name + ".class");
+				if (entry != null) {
+					byte [] bytes = file.read (entry);
+					if (scanning)
+						ahead.put (name, bytes);
+					return bytes;
+				}
+			}
+			byte [] bytes = refIndex != null ? refIndex.read (name) : null;
+			if (bytes != null)
+				return bytes;
+			for (JarReader ref : refs) {
+				JarReader.Entry entry = ref.getEntry (name + ".class");
+				if (entry != null)
+					return ref.read (entry);
+			}
+			return null;
+		}
+
+		protected URL findResource (String name)
+		{
+			List<JarReader> all = new ArrayList<JarReader> (files);
+			all.addAll (refs);
+			for (JarReader file : all)
+				if (file.getEntry (name) != null) {
+					try {
+						return new URL ("jar:" + file.getFile ().getAbsoluteFile ().toURI () + "!/" + name);
+					} catch (MalformedURLException e) {
+						return null;
+					}
+				}
+			return null;
 		}
 	}
 }
-
@@ -38,34 +38,45 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 import java.util.Locale;
 
-import jar2xml.scrapers.AndroidDocScraper;
+import jar2xml.scrapers.DeprecatedMembers;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.objectweb.asm.tree.*;
+import org.w3c.dom.Node;
 
 public class JavaClass implements Comparable<JavaClass> {
 
-	public static Map<String,ClassNode> asmClasses = new HashMap<String,ClassNode> ();
-
 	private Class jclass;
-	private ClassNode asm;
-	private Map<String,FieldNode> asmFields;
-	private List<String> deprecatedFields;
-	private List<String> deprecatedMethods;
-	private boolean is_obfuscated;
+	JavaArchive archive;
+	ClassSkeleton asm;
+	Map<String,ClassSkeleton.Field> asmFields;
+	private Set<String> deprecatedFields;
+	private Set<String> deprecatedMethods;
+	boolean is_obfuscated;
+	// taken from the prefetcher of the archive on the first lookup.
+	DocPrefetcher.Docs docs;
 
-	public JavaClass (Class jclass, ClassNode asm)
+	public JavaClass (Class jclass, ClassSkeleton asm, JavaArchive archive)
 	{
+		this (asm, archive);
 		this.jclass = jclass;
+	}
+
+	JavaClass (ClassSkeleton asm, JavaArchive archive)
+	{
 		this.asm = asm;
-		deprecatedFields = AndroidDocScraper.getDeprecatedFields(asm);
-		deprecatedMethods = AndroidDocScraper.getDeprecatedMethods (asm);
-		asmFields = new HashMap<String,FieldNode> ();
+		this.archive = archive;
+		DeprecatedMembers deprecated = archive.getDeprecatedMembers ();
+		if (deprecated != null) {
+			deprecatedFields = deprecated.getFields (asm);
+			deprecatedMethods = deprecated.getMethods (asm);
+		}
+		asmFields = new HashMap<String,ClassSkeleton.Field> ();
 
-		for (FieldNode fn : (List<FieldNode>) asm.fields)
+		for (ClassSkeleton.Field fn : asm.fields)
 			asmFields.put (fn.name, fn);
 	}
 
@@ -74,9 +85,13 @@ public class JavaClass implements Comparable<JavaClass> {
 		return getName ().compareTo (jc.getName ());
 	}
 
+	String name;
+
 	public String getName ()
 	{
-		return asm.name.replace ('/', '.');
+		if (name == null)
+			name = asm.name.replace ('/', '.');
+		return name;
 	}
 	
 	public boolean isObfuscated ()
@@ -89,11 +104,37 @@ public class JavaClass implements Comparable<JavaClass> {
 		is_obfuscated = value;
 	}
 
+	DocPrefetcher.Docs getDocs ()
+	{
+		DocPrefetcher prefetcher = archive.getPrefetcher ();
+		if (docs == null && prefetcher != null)
+			docs = prefetcher.take (asm);
+		return docs;
+	}
+
 	String[] getParameterNames (String name, Type[] types, boolean isVarArgs)
 	{
-		for (IDocScraper s : scrapers) {
-			String[] names = s.getParameterNames (asm, name, types, isVarArgs);
-			if (names != null && names.length > 0)
+		RunStats stats = archive.getStats ();
+		DocPrefetcher.Docs docs = getDocs ();
+		List<IDocScraper> scrapers = docs != null ? docs.getScrapers () : archive.getDocScrapers ();
+		for (int i = 0; i < scrapers.size (); i++) {
+			IDocScraper s = scrapers.get (i);
+			RunStats.Span span = stats.beginLookup (s);
+			Events.DocLookup event = new Events.DocLookup ();
+			event.begin ();
+			long read = event.isEnabled () ? Events.getBytesRead () : 0;
+			String[] names = (docs != null ? docs.get (i) : s).getParameterNames (asm, name, types, isVarArgs);
+			boolean found = names != null && names.length > 0;
+			span.end (found);
+			if (event.shouldCommit ()) {
+				event.scraper = s.getClass ().getSimpleName ();
+				event.className = getName ();
+				event.method = name;
+				event.hit = found;
+				event.bytesRead = Events.getBytesRead () - read + (docs != null ? docs.takeBytesRead (i) : 0);
+				event.commit ();
+			}
+			if (found)
 				return names;
 		}
 		return null;
@@ -119,7 +160,7 @@ public class JavaClass implements Comparable<JavaClass> {
 		}
 	}
 	
-	String getSimpleName (ClassNode asm)
+	String getSimpleName (ClassSkeleton asm)
 	{
 		return asm.name.substring (asm.name.lastIndexOf ('/') + 1).replace ('$', '.');
 	}
@@ -239,7 +280,7 @@ public class JavaClass implements Comparable<JavaClass> {
 		return 0;
 	}
 
-	void appendField (Field field, FieldNode asmField, Document doc, Element parent)
+	void appendField (Field field, ClassSkeleton.Field asmField, Document doc, Element parent)
 	{
 		try {
 			doAppendField (field, asmField, doc, parent);
@@ -248,7 +289,7 @@ public class JavaClass implements Comparable<JavaClass> {
 		}
 	}
 	
-	void doAppendField (Field field, FieldNode asmField, Document doc, Element parent)
+	void doAppendField (Field field, ClassSkeleton.Field asmField, Document doc, Element parent)
 	{
 		int mods = field.getModifiers ();
 		if (!Modifier.isPublic (mods) && !Modifier.isProtected (mods))
@@ -267,6 +308,16 @@ public class JavaClass implements Comparable<JavaClass> {
 		e.setAttribute ("volatile", Modifier.isVolatile (mods) ? "true" : "false");
 		setDeprecatedAttr (e, field.getDeclaredAnnotations (), e.getAttribute ("name"));
 
+		if (!appendConstantValue (e, mods, asmField, field.getName ()))
+			// this happens to couple of fields on java.awt.font.TextAttribute, java.lang.Double/Float and so on.
+			System.err.println ("warning J2XA003: asm failed to retrieve FieldNode for " + field);
+		e.appendChild (doc.createTextNode ("\n"));
+		parent.appendChild (e);
+	}
+
+	// Returns false if there is no skeleton field to take the value from.
+	boolean appendConstantValue (Element e, int mods, ClassSkeleton.Field asmField, String fieldName)
+	{
 		// *** constant value retrieval ***
 		// sadly, there is no perfect solution:
 		// - basically we want to use ASM, but sometimes ASM fails
@@ -279,8 +330,7 @@ public class JavaClass implements Comparable<JavaClass> {
 		// basically we use ASM here.
 		
 		if (asmField == null)
-			// this happens to couple of fields on java.awt.font.TextAttribute, java.lang.Double/Float and so on.
-			System.err.println ("warning J2XA003: asm failed to retrieve FieldNode for " + field);
+			return false;
 		else if (asmField.value != null) {
 			String type = e.getAttribute ("type");
 			boolean isPublic = Modifier.isPublic (mods);
@@ -338,13 +388,12 @@ public class JavaClass implements Comparable<JavaClass> {
 				else if (Modifier.isStatic (mods) && e.getAttribute ("type").endsWith ("[]"))
 					e.setAttribute ("value", "null");
 			} catch (Throwable exc) {
-				System.err.println ("warning J2XA004: error accessing constant field " + field.getName () + " value for class " + getName () + " : " + exc.getMessage ());
+				System.err.println ("warning J2XA004: error accessing constant field " + fieldName + " value for class " + getName () + " : " + exc.getMessage ());
 			}
 		}
 		else if (!Modifier.isStatic (mods) && e.getAttribute ("type").endsWith ("[]"))
 			e.setAttribute ("value", "null");
-		e.appendChild (doc.createTextNode ("\n"));
-		parent.appendChild (e);
+		return true;
 	}
 
 	String escapeLiteral (String s)
@@ -434,23 +483,55 @@ public class JavaClass implements Comparable<JavaClass> {
 		});
 	}
 	
+	// Classes compare by their names among themselves (Raws too), anything else by generic type names.
 	static void sortTypes (Type [] types)
 	{
-		java.util.Arrays.sort (types, new java.util.Comparator () {
-			public int compare (Object o1, Object o2)
+		final String [] names = new String [types.length];
+		final String [] generic_names = new String [types.length];
+		final boolean [] raws = new boolean [types.length];
+		for (int i = 0; i < types.length; i++) {
+			if (types [i] instanceof Class)
+				names [i] = ((Class) types [i]).getName ();
+			else if (types [i] instanceof AsmType.Raw) {
+				names [i] = ((AsmType.Raw) types [i]).getName ();
+				raws [i] = true;
+			}
+			generic_names [i] = getGenericTypeName (types [i]);
+		}
+		sort (types, new Comparator<Integer> () {
+			public int compare (Integer i1, Integer i2)
 			{
-				if (o1 instanceof Class && o2 instanceof Class)
-					return ((Class) o1).getName ().compareTo (((Class) o2).getName ());
+				if (names [i1] != null && names [i2] != null && raws [i1] == raws [i2])
+					return names [i1].compareTo (names [i2]);
 				else
-					return getGenericTypeName ((Type) o1).compareTo (getGenericTypeName ((Type) o2));
+					return generic_names [i1].compareTo (generic_names [i2]);
 			}
-			public boolean equals (Object obj)
+		});
+	}
+
+	// Sorts the items by the given keys, computed beforehand instead of on each comparison.
+	static <T> void sortByKeys (T [] items, final String [] keys)
+	{
+		sort (items, new Comparator<Integer> () {
+			public int compare (Integer i1, Integer i2)
 			{
-				return super.equals (obj);
+				return keys [i1].compareTo (keys [i2]);
 			}
 		});
 	}
 
+	// Sorts the items by a comparator of their indices, stably like Arrays.sort ().
+	static <T> void sort (T [] items, Comparator<Integer> comparator)
+	{
+		Integer [] order = new Integer [items.length];
+		for (int i = 0; i < order.length; i++)
+			order [i] = i;
+		Arrays.sort (order, comparator);
+		T [] unsorted = items.clone ();
+		for (int i = 0; i < order.length; i++)
+			items [i] = unsorted [order [i]];
+	}
+
 	static String getTypeParameters (TypeVariable<?>[] typeParameters)
 	{
 		if (typeParameters.length == 0)
@@ -555,13 +636,68 @@ public class JavaClass implements Comparable<JavaClass> {
 		return basename.replace ("$", ".");
 	}
 
+	// Returns the class element created on doc, or null if the class could not be reflected.
+	public Element buildElement (Document doc)
+	{
+		RunStats stats = archive.getStats ();
+		RunStats.Span span = stats.begin ("analysis");
+		Events.ClassAnalysis event = new Events.ClassAnalysis ();
+		event.begin ();
+		Element e = null;
+		try {
+			e = buildElement (doc, stats, event);
+			return e;
+		} finally {
+			docs = null;
+			if (archive.getPrefetcher () != null)
+				archive.getPrefetcher ().release (asm);
+			stats.classAnalysed (getName (), span);
+			if (event.shouldCommit ()) {
+				event.className = getName ();
+				for (Node n = e != null ? e.getFirstChild () : null; n != null; n = n.getNextSibling ()) {
+					if (n.getNodeName ().equals ("field"))
+						event.fields++;
+					else if (n.getNodeName ().equals ("method"))
+						event.methods++;
+					else if (n.getNodeName ().equals ("constructor"))
+						event.constructors++;
+				}
+				event.commit ();
+			}
+		}
+	}
+
+	Element buildElement (Document doc, RunStats stats, Events.ClassAnalysis event)
+	{
+		ApiCache cache = archive.getCache ();
+		String key = cache != null ? cache.getKey (this) : null;
+		if (key != null) {
+			Element cached = cache.load (key, doc);
+			stats.count (cached != null ? "cache.hits" : "cache.misses");
+			event.cached = cached != null;
+			if (cached != null)
+				return cached;
+		}
+
+		Element container = doc.createElement ("package");
+		appendToDocument (doc, container);
+		Element e = (Element) container.getFirstChild ();
+		if (key != null && e != null)
+			cache.store (key, e);
+		return e;
+	}
+
 	public void appendToDocument (Document doc, Element parent)
 	{
+		Map<Type,String> outer = type_names.get ();
+		type_names.set (archive.getTypeNames ());
 		try {
 			doAppendToDocument (doc, parent);
 		} catch (Throwable ex) {
 			ex.printStackTrace ();
-			System.err.println ("warning J2XA006: missing class error was raised while reflecting " + jclass.getName () + " : " + ex.getMessage ());
+			System.err.println ("warning J2XA006: missing class error was raised while reflecting " + getName () + " : " + ex.getMessage ());
+		} finally {
+			type_names.set (outer);
 		}
 	}
 	
@@ -571,17 +707,10 @@ public class JavaClass implements Comparable<JavaClass> {
 		}
 	};
 	
-	boolean isInPublicInheritanceChain (Class cls)
-	{
-		for (Class c = cls; c != null; c = c.getSuperclass ())
-			if ((c.getModifiers () & Modifier.PUBLIC) == 0)
-				return false;
-		return true;
-	}
-
 	void doAppendToDocument (Document doc, Element parent)
 	{
 		int mods = jclass.getModifiers ();
+		HierarchyIndex.Reflection hierarchy = archive.getReflectionHierarchy ();
 
 		Element e = doc.createElement (jclass.isInterface () ? "interface" : "class");
 		if (!jclass.isInterface ()) {
@@ -627,17 +756,21 @@ public class JavaClass implements Comparable<JavaClass> {
 			e.appendChild (iface_elem);
 		}
 
-		for (Constructor ctor : jclass.getDeclaredConstructors ())
+		Constructor [] ctors = jclass.getDeclaredConstructors ();
+		if (archive.sortsConstructors ())
+			sortConstructors (ctors);
+		for (Constructor ctor : ctors)
 			appendCtor (ctor, doc, e);
 
 		Class base_class = jclass.getSuperclass ();
+		boolean publicChain = hierarchy.isInPublicInheritanceChain (jclass);
 		Map<String, Method> methods = new HashMap <String, Method> ();
 		for (Method method : jclass.getDeclaredMethods ()) {
 			// Skip "synthetic" methods that is automatically supplied by JRE.
 			// But there is an exception scenario: if the class is derived from non-public class,
 			// don't do that - it results in excessive removal.
 			// e.g. in libcore/luni, StringBuilder inherits non-public AbstractStringBuilder.
-			if (method.isSynthetic () && isInPublicInheritanceChain (jclass))
+			if (method.isSynthetic () && publicChain)
 				continue;
 			
 			int mmods = method.getModifiers ();
@@ -663,16 +796,9 @@ public class JavaClass implements Comparable<JavaClass> {
 				continue;
 
 			if (base_class != null && !Modifier.isFinal (mmods)) {
-				Method base_method = null;
-				Class ancestor = base_class;
-				while (ancestor != null && base_method == null) {
-					try {
-						base_method = ancestor.getDeclaredMethod (method.getName (), method.getParameterTypes ());
-					} catch (Exception ex) {
-					}
-					ancestor = ancestor.getSuperclass ();
-				}
-							
+				HierarchyIndex.Declaration<Class<?>,Method> base = hierarchy.getNearestDeclaration (base_class, HierarchyIndex.Reflection.getSignature (method.getName (), ptypes));
+				Method base_method = base != null ? base.method : null;
+
 				if (base_method != null) {
 					// FIXME: this causes GridView.setAdapter() skipped.
 					// Removing this entire block however results in more confusion. See README.
@@ -729,7 +855,7 @@ public class JavaClass implements Comparable<JavaClass> {
 			return jclass.getDeclaredFields ();
 		} catch (NoClassDefFoundError ex) {
 			List<Field> l = new ArrayList<Field> ();
-			for (FieldNode fn : asm.fields) {
+			for (ClassSkeleton.Field fn : asm.fields) {
 				try {
 					l.add (jclass.getField (fn.name));
 				} catch (NoClassDefFoundError exx) {
@@ -740,6 +866,25 @@ public class JavaClass implements Comparable<JavaClass> {
 		}
 	}
 
+	// By parameter types, see JavaArchive.sortsConstructors.
+	static void sortConstructors (Constructor [] ctors)
+	{
+		String [] keys = new String [ctors.length];
+		for (int i = 0; i < ctors.length; i++)
+			keys [i] = getParameterTypeNames (ctors [i]);
+		sortByKeys (ctors, keys);
+	}
+
+	static String getParameterTypeNames (Constructor ctor)
+	{
+		StringBuffer sig = new StringBuffer ();
+		for (Class t : ctor.getParameterTypes ()) {
+			sig.append (":");
+			sig.append (t.getName ());
+		}
+		return sig.toString ();
+	}
+
 	void sortFields (Field [] fields)
 	{
 		Arrays.sort (fields, new Comparator<Field> () {
@@ -754,42 +899,85 @@ public class JavaClass implements Comparable<JavaClass> {
 		});
 	}
 
-	public static String getGenericTypeName (Type type)
+	// name is in Class.getName() format.
+	static String getClassTypeName (String name)
 	{
-		if (type instanceof Class) {
-			String name = ((Class) type).getName ();
-			if (name.charAt (0) == '[') {
-				// Array types report a jni formatted name
-				String suffix = "";
-				while (name.charAt (0) == '[') {
-					name = name.substring (1);
-					suffix = suffix + "[]";
-				}
-				if (name.equals ("B"))
-					return "byte" + suffix;
-				else if (name.equals ("C"))
-					return "char" + suffix;
-				else if (name.equals ("D"))
-					return "double" + suffix;
-				else if (name.equals ("I"))
-					return "int" + suffix;
-				else if (name.equals ("F"))
-					return "float" + suffix;
-				else if (name.equals ("J"))
-					return "long" + suffix;
-				else if (name.equals ("S"))
-					return "short" + suffix;
-				else if (name.equals ("Z"))
-					return "boolean" + suffix;
-				else if (name.charAt (0) == 'L')
-					return name.substring (1, name.length () - 1).replace ('$', '.') + suffix;
-				else {
-					System.err.println ("warning J2XA008: unexpected array type name '" + name + "'");
-					return "";
-				}
+		if (name.charAt (0) == '[') {
+			// Array types report a jni formatted name
+			String suffix = "";
+			while (name.charAt (0) == '[') {
+				name = name.substring (1);
+				suffix = suffix + "[]";
+			}
+			if (name.equals ("B"))
+				return "byte" + suffix;
+			else if (name.equals ("C"))
+				return "char" + suffix;
+			else if (name.equals ("D"))
+				return "double" + suffix;
+			else if (name.equals ("I"))
+				return "int" + suffix;
+			else if (name.equals ("F"))
+				return "float" + suffix;
+			else if (name.equals ("J"))
+				return "long" + suffix;
+			else if (name.equals ("S"))
+				return "short" + suffix;
+			else if (name.equals ("Z"))
+				return "boolean" + suffix;
+			else if (name.charAt (0) == 'L')
+				return name.substring (1, name.length () - 1).replace ('$', '.') + suffix;
+			else {
+				System.err.println ("warning J2XA008: unexpected array type name '" + name + "'");
+				return "";
 			}
-			return name.replace ('$', '.');
-		} else if (type instanceof ParameterizedType) {
+		}
+		return name.replace ('$', '.');
+	}
+
+	// Names of classes, in getGenericTypeName () format.
+	static final ClassValue<String> class_type_names = new ClassValue<String> () {
+		protected String computeValue (Class c)
+		{
+			return getClassTypeName (c.getName ());
+		}
+	};
+
+	// Names of reflection's other Types, kept by the archive of the class
+	// being analysed on this thread; set by appendToDocument ().
+	static final ThreadLocal<Map<Type,String>> type_names = new ThreadLocal<Map<Type,String>> ();
+
+	// Type names are asked for over and over (signatures, parameters, sorting,
+	// doc lookups), so they are rendered once per class, per AsmType and,
+	// during an analysis, per reflection Type.
+	public static String getGenericTypeName (Type type)
+	{
+		if (type instanceof Class)
+			return class_type_names.get ((Class) type);
+		if (type instanceof AsmType) {
+			AsmType t = (AsmType) type;
+			if (t.genericTypeName == null)
+				t.genericTypeName = renderGenericTypeName (type);
+			return t.genericTypeName;
+		}
+		Map<Type,String> names = type_names.get ();
+		if (names == null)
+			return renderGenericTypeName (type);
+		String name = names.get (type);
+		if (name == null) {
+			name = renderGenericTypeName (type);
+			names.put (type, name);
+		}
+		return name;
+	}
+
+	static String renderGenericTypeName (Type type)
+	{
+		if (type instanceof Class)
+			return getClassTypeName (((Class) type).getName ());
+		else if (type instanceof AsmType.Raw)
+			return getClassTypeName (((AsmType.Raw) type).getName ());
+		else if (type instanceof ParameterizedType) {
 			// toString() does not work fine for ParameterizedType, so do it by ourselves.
 			ParameterizedType ptype = (ParameterizedType) type;
 			StringBuilder sb = new StringBuilder ();
@@ -824,28 +1012,25 @@ public class JavaClass implements Comparable<JavaClass> {
 
 	void setDeprecatedAttr (Element elem, Annotation[] annotations, String name)
 	{
-		boolean isDeprecated = false;
-		
-		// by reference document (they may be excessive on old versions though)
-		isDeprecated = deprecatedFields != null && deprecatedFields.indexOf (name) >= 0
-			|| deprecatedMethods != null && deprecatedMethods.indexOf (name) >= 0;
-
-		// by annotations (they might not exist though)
+		boolean annotated = false;
 		for (Annotation a : annotations)
 			if (a instanceof java.lang.Deprecated)
-				isDeprecated = true;
-		elem.setAttribute ("deprecated", isDeprecated ? "deprecated" : "not deprecated");
+				annotated = true;
+		setDeprecatedAttr (elem, annotated, name);
 	}
 
-	static ArrayList<IDocScraper> scrapers;
-
-	public static void addDocScraper (IDocScraper scraper)
+	void setDeprecatedAttr (Element elem, boolean annotated, String name)
 	{
-		scrapers.add (scraper);
-	}
+		boolean isDeprecated = false;
+		
+		// by reference document (they may be excessive on old versions though)
+		isDeprecated = deprecatedFields != null && deprecatedFields.contains (name)
+			|| deprecatedMethods != null && deprecatedMethods.contains (name);
 
-	static {
-		scrapers = new ArrayList<IDocScraper> ();
+		// by annotations (they might not exist though)
+		if (annotated)
+			isDeprecated = true;
+		elem.setAttribute ("deprecated", isDeprecated ? "deprecated" : "not deprecated");
 	}
 }
 
@@ -27,8 +27,8 @@ package jar2xml;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
 
 public class JavaPackage implements Comparable<JavaPackage> {
 
@@ -56,11 +56,32 @@ public class JavaPackage implements Comparable<JavaPackage> {
 		classes.add (cls);
 	}
 
-	public void appendToDocument (Document doc, Element parent)
+	public List<JavaClass> getClasses ()
 	{
-		Element e = doc.createElement ("package");
+		return classes;
+	}
+
+	public void appendToDocument (ApiWriter writer) throws SAXException
+	{
+		appendToDocument (writer, null);
+	}
+
+	public void appendToDocument (ApiWriter writer, AnalysisQueue queue) throws SAXException
+	{
+		Element e = writer.getDocument ().createElement ("package");
 		e.setAttribute ("name", name);
-		parent.appendChild (e);
+		writer.startElement (e);
+		sortClasses ();
+		for (JavaClass c : classes) {
+			Element ce = queue != null ? queue.take (c) : c.buildElement (writer.getDocument ());
+			if (ce != null)
+				writer.writeElement (ce);
+		}
+		writer.endElement (e);
+	}
+
+	void sortClasses ()
+	{
 		Collections.sort (classes);
 		for (int i = 0; i < classes.size (); i++) {
 			String name = classes.get (i).getName ();
@@ -68,8 +89,6 @@ public class JavaPackage implements Comparable<JavaPackage> {
 			if (isObfuscatedName (body))
 				classes.get (i).setObfuscated (true);
 		}
-		for (JavaClass c : classes)
-			c.appendToDocument (doc, e);
 	}
 	
 	static final String [] a_names = new String [] {
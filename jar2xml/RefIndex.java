@@ -0,0 +1,533 @@
+/* 
+ *  Copyright (c) 2011 Xamarin Inc.
+ * 
+ *  Permission is hereby granted, free of charge, to any person 
+ *  obtaining a copy of this software and associated documentation 
+ *  files (the "Software"), to deal in the Software without restriction, 
+ *  including without limitation the rights to use, copy, modify, merge, 
+ *  publish, distribute, sublicense, and/or sell copies of the Software, 
+ *  and to permit persons to whom the Software is furnished to do so, 
+ *  subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be 
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES 
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS 
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN 
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE 
+ *  SOFTWARE.
+ */
+
+
+package jar2xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.objectweb.asm.ClassReader;
+
+// Reference jars compiled by "jar2xml --index=<file> --ref=<jar>...": where
+// each of their classes is, and its ClassSkeleton, in a file that runs map
+// (--refindex=<file>) instead of opening the jars and reading their classes.
+//
+// Classes are found through a hash table of their names, as stored in the
+// file, so a lookup costs the same whatever the number of jars and classes.
+// A class in several jars is taken from the first one, as a class path
+// would. The jars are only mapped when the reflection engine needs the
+// bytes of one of their classes.
+//
+// Layout, big endian:
+//	header   magic, version, jar count, class count, table size, strings offset
+//	jars     path (string offset), length, modification time
+//	table    class record offset, or 0, at the hash of the class name
+//	         (String.hashCode ()) modulo the table size, probed linearly
+//	records  name, jar, zip entry (method, flags, crc, size, compressed
+//	         size, local header offset), the error reading it (or -1), then
+//	         its skeleton
+//	strings  byte length, then UTF-8 bytes; each stored once. Strings that
+//	         UTF-8 can't encode (constants with unpaired surrogates) are
+//	         stored as -1 - their length, then their UTF-16 chars.
+//
+// String offsets are relative to the strings, and -1 for null.
+public class RefIndex {
+
+	static final int magic = 0x4a325852; // J2XR
+	static final int version = 1;
+	static final int header_size = 6 * 4;
+	static final int jar_size = 4 + 8 + 8;
+	static final Charset utf8 = Charset.forName ("UTF-8");
+
+	final File file;
+	final ByteBuffer buffer;
+	final int classCount;
+	final int tableSize;
+	final int table;
+	final int strings;
+	final File [] jars;
+	final JarReader [] readers;
+
+	RefIndex (File file, ByteBuffer buffer) throws IOException
+	{
+		this.file = file;
+		this.buffer = buffer;
+		if (buffer.capacity () < header_size || buffer.getInt (0) != magic || buffer.getInt (4) != version)
+			throw new IOException (file + " is not a jar2xml reference index (of version " + version + ")");
+		jars = new File [buffer.getInt (8)];
+		readers = new JarReader [jars.length];
+		classCount = buffer.getInt (12);
+		tableSize = buffer.getInt (16);
+		strings = buffer.getInt (20);
+		table = header_size + jars.length * jar_size;
+		for (int i = 0; i < jars.length; i++)
+			jars [i] = new File (getString (buffer.getInt (header_size + i * jar_size)));
+		check ();
+	}
+
+	// The entry locations are only valid for the very jars indexed.
+	public void check () throws IOException
+	{
+		for (int i = 0; i < jars.length; i++) {
+			int record = header_size + i * jar_size;
+			if (jars [i].length () != buffer.getLong (record + 4) || jars [i].lastModified () != buffer.getLong (record + 12))
+				throw new IOException (jars [i] + " has changed since " + file + " was built");
+		}
+	}
+
+	public static RefIndex open (File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile (file, "r");
+		try {
+			FileChannel channel = raf.getChannel ();
+			return new RefIndex (file, channel.map (FileChannel.MapMode.READ_ONLY, 0, channel.size ()));
+		} finally {
+			// the mapping stays valid.
+			raf.close ();
+		}
+	}
+
+	public List<File> getJars ()
+	{
+		List<File> list = new ArrayList<File> ();
+		for (File jar : jars)
+			list.add (jar);
+		return list;
+	}
+
+	public int size ()
+	{
+		return classCount;
+	}
+
+	// Unmaps the jars read so far; they are mapped again if needed.
+	public void close ()
+	{
+		synchronized (readers) {
+			for (int i = 0; i < readers.length; i++) {
+				if (readers [i] != null)
+					readers [i].close ();
+				readers [i] = null;
+			}
+		}
+	}
+
+	String getString (int offset)
+	{
+		if (offset < 0)
+			return null;
+		offset += strings;
+		int length = buffer.getInt (offset);
+		if (length < 0) {
+			char [] chars = new char [-1 - length];
+			for (int i = 0; i < chars.length; i++)
+				chars [i] = buffer.getChar (offset + 4 + i * 2);
+			return new String (chars);
+		}
+		byte [] bytes = new byte [length];
+		ByteBuffer b = buffer.duplicate ();
+		b.position (offset + 4);
+		b.get (bytes);
+		return new String (bytes, utf8);
+	}
+
+	boolean equals (int offset, byte [] key)
+	{
+		offset += strings;
+		if (buffer.getInt (offset) != key.length)
+			return false;
+		for (int i = 0; i < key.length; i++)
+			if (buffer.get (offset + 4 + i) != key [i])
+				return false;
+		return true;
+	}
+
+	// The record of the class of the given internal name, or 0.
+	int find (String name)
+	{
+		byte [] key = name.getBytes (utf8);
+		int mask = tableSize - 1;
+		for (int i = name.hashCode () & mask; ; i = (i + 1) & mask) {
+			int record = buffer.getInt (table + i * 4);
+			if (record == 0 || equals (buffer.getInt (record), key))
+				return record;
+		}
+	}
+
+	public boolean contains (String name)
+	{
+		return find (name) != 0;
+	}
+
+	// Same as ClassStore.getFingerprint () of the class entry, or null if there is no such class.
+	public String getFingerprint (String name)
+	{
+		int record = find (name);
+		if (record == 0)
+			return null;
+		return buffer.getLong (record + 16) + ":" + buffer.getLong (record + 24);
+	}
+
+	// The class file of the class, or null if there is no such class.
+	public byte [] read (String name) throws IOException
+	{
+		int record = find (name);
+		if (record == 0)
+			return null;
+		int jar = buffer.getInt (record + 4);
+		JarReader reader;
+		synchronized (readers) {
+			if (readers [jar] == null)
+				readers [jar] = new JarReader (jars [jar], false);
+			reader = readers [jar];
+		}
+		return reader.read (new JarReader.Entry (name + ".class", buffer.getInt (record + 8), buffer.getInt (record + 12),
+			buffer.getLong (record + 16), buffer.getLong (record + 24), buffer.getLong (record + 32), buffer.getLong (record + 40)));
+	}
+
+	// The skeleton of the class, or null if there is no such class.
+	public ClassSkeleton getSkeleton (String name) throws IOException
+	{
+		int record = find (name);
+		if (record == 0)
+			return null;
+		String error = getString (buffer.getInt (record + 48));
+		if (error != null)
+			throw new IOException (error);
+
+		ByteBuffer b = buffer.duplicate ();
+		b.position (record + 52);
+		int access = b.getInt ();
+		String signature = getInterned (b);
+		String superName = getInterned (b);
+		String [] interfaces = getNames (b);
+		int modifiers = b.getInt ();
+		String declaringClass = getInterned (b);
+		String simpleName = getInterned (b);
+		boolean deprecated = b.getInt () != 0;
+		ClassSkeleton.Field [] fields = new ClassSkeleton.Field [b.getInt ()];
+		for (int i = 0; i < fields.length; i++) {
+			String fieldName = getInterned (b);
+			String desc = getInterned (b);
+			String fieldSignature = getInterned (b);
+			int fieldAccess = b.getInt ();
+			Object value;
+			switch (b.getInt ()) {
+			case 1: value = b.getInt (); break;
+			case 2: value = Float.intBitsToFloat (b.getInt ()); break;
+			case 3: value = b.getLong (); break;
+			case 4: value = Double.longBitsToDouble (b.getLong ()); break;
+			case 5: value = getString (b.getInt ()); break;
+			default: value = null; break;
+			}
+			fields [i] = new ClassSkeleton.Field (fieldName, desc, fieldSignature, fieldAccess, value, b.getInt () != 0);
+		}
+		ClassSkeleton.Method [] methods = new ClassSkeleton.Method [b.getInt ()];
+		for (int i = 0; i < methods.length; i++) {
+			String methodName = getInterned (b);
+			String desc = getInterned (b);
+			String methodSignature = getInterned (b);
+			int methodAccess = b.getInt ();
+			String [] exceptions = getNames (b);
+			methods [i] = new ClassSkeleton.Method (methodName, desc, methodSignature, methodAccess, exceptions, b.getInt () != 0);
+		}
+		return new ClassSkeleton (ClassSkeleton.intern (name), access, signature, superName, interfaces,
+			modifiers, declaringClass, simpleName, deprecated, fields, methods);
+	}
+
+	String getInterned (ByteBuffer b)
+	{
+		return ClassSkeleton.intern (getString (b.getInt ()));
+	}
+
+	String [] getNames (ByteBuffer b)
+	{
+		int count = b.getInt ();
+		if (count < 0)
+			return null;
+		String [] names = new String [count];
+		for (int i = 0; i < count; i++)
+			names [i] = getInterned (b);
+		return names;
+	}
+
+	static class Writer {
+		ByteArrayOutputStream recordBytes = new ByteArrayOutputStream ();
+		DataOutputStream records = new DataOutputStream (recordBytes);
+		ByteArrayOutputStream stringBytes = new ByteArrayOutputStream ();
+		DataOutputStream strings = new DataOutputStream (stringBytes);
+		Map<String,Integer> offsets = new HashMap<String,Integer> ();
+
+		int putString (String s) throws IOException
+		{
+			if (s == null)
+				return -1;
+			Integer offset = offsets.get (s);
+			if (offset != null)
+				return offset;
+			offset = strings.size ();
+			byte [] b = s.getBytes (utf8);
+			if (new String (b, utf8).equals (s)) {
+				strings.writeInt (b.length);
+				strings.write (b);
+			} else {
+				strings.writeInt (-1 - s.length ());
+				strings.writeChars (s);
+			}
+			offsets.put (s, offset);
+			return offset;
+		}
+
+		void writeString (String s) throws IOException
+		{
+			// strings go to their own region, so that records stay contiguous.
+			records.writeInt (putString (s));
+		}
+
+		void writeNames (String [] names) throws IOException
+		{
+			if (names == null) {
+				records.writeInt (-1);
+				return;
+			}
+			records.writeInt (names.length);
+			for (String name : names)
+				writeString (name);
+		}
+
+		void writeSkeleton (ClassSkeleton c) throws IOException
+		{
+			records.writeInt (c.access);
+			writeString (c.signature);
+			writeString (c.superName);
+			writeNames (c.interfaces);
+			records.writeInt (c.modifiers);
+			writeString (c.declaringClass);
+			writeString (c.simpleName);
+			records.writeInt (c.deprecated ? 1 : 0);
+			records.writeInt (c.fields.length);
+			for (ClassSkeleton.Field f : c.fields) {
+				writeString (f.name);
+				writeString (f.desc);
+				writeString (f.signature);
+				records.writeInt (f.access);
+				if (f.value instanceof Integer) {
+					records.writeInt (1);
+					records.writeInt ((Integer) f.value);
+				} else if (f.value instanceof Float) {
+					records.writeInt (2);
+					records.writeInt (Float.floatToRawIntBits ((Float) f.value));
+				} else if (f.value instanceof Long) {
+					records.writeInt (3);
+					records.writeLong ((Long) f.value);
+				} else if (f.value instanceof Double) {
+					records.writeInt (4);
+					records.writeLong (Double.doubleToRawLongBits ((Double) f.value));
+				} else if (f.value instanceof String) {
+					records.writeInt (5);
+					writeString ((String) f.value);
+				} else
+					records.writeInt (0);
+				records.writeInt (f.deprecated ? 1 : 0);
+			}
+			records.writeInt (c.methods.length);
+			for (ClassSkeleton.Method m : c.methods) {
+				writeString (m.name);
+				writeString (m.desc);
+				writeString (m.signature);
+				records.writeInt (m.access);
+				writeNames (m.exceptions);
+				records.writeInt (m.deprecated ? 1 : 0);
+			}
+		}
+	}
+
+	static class IndexedClass {
+		int jar;
+		JarReader.Entry entry;
+		ClassSkeleton skeleton;
+		String error;
+	}
+
+	// Indexes the classes of the given jars with the given number of threads, and writes the index to file.
+	public static void build (List<String> paths, File file, int jobs) throws Exception
+	{
+		List<JarReader> jars = new ArrayList<JarReader> ();
+		ExecutorService pool = Executors.newFixedThreadPool (jobs);
+		try {
+			// sorted, for the file not to depend on the order of the zip entries.
+			Map<String,IndexedClass> classes = new TreeMap<String,IndexedClass> ();
+			for (String path : paths) {
+				JarReader jar = new JarReader (new File (path).getAbsoluteFile ());
+				jars.add (jar);
+				for (JarReader.Entry entry : jar.entries ()) {
+					String name = entry.getName ();
+					if (!name.endsWith (".class") || classes.containsKey (name.substring (0, name.length () - 6)))
+						continue;
+					IndexedClass c = new IndexedClass ();
+					c.jar = jars.size () - 1;
+					c.entry = entry;
+					classes.put (name.substring (0, name.length () - 6), c);
+				}
+			}
+
+			List<Future<?>> results = new ArrayList<Future<?>> ();
+			for (final IndexedClass c : classes.values ())
+				results.add (pool.submit (new Callable<Object> () {
+					public Object call ()
+					{
+						try {
+							c.skeleton = ClassSkeleton.read (new ClassReader (jars.get (c.jar).read (c.entry)));
+						} catch (Exception e) {
+							// kept for the reflection engine, which may still load it; see getSkeleton ().
+							c.error = e.toString ();
+						}
+						return null;
+					}
+				}));
+			for (Future<?> result : results)
+				result.get ();
+			write (file, jars, classes);
+		} finally {
+			pool.shutdown ();
+			for (JarReader jar : jars)
+				jar.close ();
+		}
+	}
+
+	static void write (File file, List<JarReader> jars, Map<String,IndexedClass> classes) throws IOException
+	{
+		Writer w = new Writer ();
+		int tableSize = 1;
+		while (tableSize < classes.size () * 2)
+			tableSize *= 2;
+		int recordsOffset = header_size + jars.size () * jar_size + tableSize * 4;
+
+		int [] table = new int [tableSize];
+		for (Map.Entry<String,IndexedClass> e : classes.entrySet ()) {
+			String name = e.getKey ();
+			IndexedClass c = e.getValue ();
+			int slot = name.hashCode () & (tableSize - 1);
+			while (table [slot] != 0)
+				slot = (slot + 1) & (tableSize - 1);
+			table [slot] = recordsOffset + w.records.size ();
+
+			w.writeString (name);
+			w.records.writeInt (c.jar);
+			w.records.writeInt (c.entry.method);
+			w.records.writeInt (c.entry.flags);
+			w.records.writeLong (c.entry.crc);
+			w.records.writeLong (c.entry.size);
+			w.records.writeLong (c.entry.compressedSize);
+			w.records.writeLong (c.entry.offset);
+			w.writeString (c.error);
+			if (c.skeleton != null)
+				w.writeSkeleton (c.skeleton);
+		}
+
+		File tmp = new File (file.getPath () + ".tmp");
+		DataOutputStream out = new DataOutputStream (new FileOutputStream (tmp));
+		try {
+			// the jar paths are strings too, written before the header points at them.
+			int [] paths = new int [jars.size ()];
+			for (int i = 0; i < paths.length; i++)
+				paths [i] = w.putString (jars.get (i).getFile ().getPath ());
+			for (int value : new int [] {magic, version, jars.size (), classes.size (), tableSize, recordsOffset + w.records.size ()})
+				out.writeInt (value);
+			for (int i = 0; i < paths.length; i++) {
+				out.writeInt (paths [i]);
+				out.writeLong (jars.get (i).getFile ().length ());
+				out.writeLong (jars.get (i).getFile ().lastModified ());
+			}
+			for (int value : table)
+				out.writeInt (value);
+			w.recordBytes.writeTo (out);
+			w.stringBytes.writeTo (out);
+		} finally {
+			out.close ();
+		}
+		if (!tmp.renameTo (file)) {
+			file.delete ();
+			if (!tmp.renameTo (file))
+				throw new IOException ("Couldn't rename " + tmp + " to " + file);
+		}
+	}
+
+	// jar2xml --index=<file> --ref=<jarfile> [--ref=<jarfile>...] [--jobs=<n>]
+	public static int run (String [] args)
+	{
+		String index = null;
+		List<String> refs = new ArrayList<String> ();
+		int jobs = Runtime.getRuntime ().availableProcessors ();
+		String usage = "Usage: jar2xml --index=<file> --ref=<jarfile> [--ref=<jarfile>...] [--jobs=<n>]";
+		for (String arg : args) {
+			if (arg.startsWith ("--index="))
+				index = arg.substring (8);
+			else if (arg.startsWith ("--ref="))
+				refs.add (arg.substring (6));
+			else if (arg.startsWith ("--jobs=")) {
+				try {
+					jobs = Integer.parseInt (arg.substring (7));
+				} catch (NumberFormatException e) {
+					jobs = 0;
+				}
+			} else
+				jobs = 0;
+			if (jobs < 1) {
+				System.err.println (usage);
+				return 1;
+			}
+		}
+		if (index == null || refs.isEmpty ()) {
+			System.err.println (usage);
+			return 1;
+		}
+
+		try {
+			build (refs, new File (index), jobs);
+		} catch (Exception e) {
+			e.printStackTrace ();
+			System.err.println ("error J2X0011: Couldn't index the reference jars : " + e);
+			return 1;
+		}
+		return 0;
+	}
+}
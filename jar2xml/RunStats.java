@@ -0,0 +1,400 @@
+/* 
+ *  Copyright (c) 2011 Xamarin Inc.
+ * 
+ *  Permission is hereby granted, free of charge, to any person 
+ *  obtaining a copy of this software and associated documentation 
+ *  files (the "Software"), to deal in the Software without restriction, 
+ *  including without limitation the rights to use, copy, modify, merge, 
+ *  publish, distribute, sublicense, and/or sell copies of the Software, 
+ *  and to permit persons to whom the Software is furnished to do so, 
+ *  subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be 
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES 
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS 
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN 
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE 
+ *  SOFTWARE.
+ */
+
+
+package jar2xml;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Timings and counters of a run, reported as JSON by --stats=<file>.
+//
+// Each phase (reading class files, loading classes, analysing them, querying
+// each doc scraper, writing the XML...) accumulates the number of times it
+// ran, and its wall and CPU time on the thread that ran it. Phases nest: the
+// analysis of a class includes the doc scraper lookups it makes. Analysed
+// classes are also accounted per package, and the slowest ones are kept.
+//
+// The docs read ahead (see DocPrefetcher) are accounted per scraper as
+// prefetches, on the I/O threads that read them; the lookups of the analysis
+// then account the wait for them, not the reads.
+//
+// A run without --stats nor --progress uses "none", whose spans do nothing.
+public class RunStats {
+
+	public static final RunStats none = new RunStats ();
+
+	static final int slowest_count = 20;
+	static final ThreadMXBean threads = ManagementFactory.getThreadMXBean ();
+	static final boolean has_cpu_time = threads.isCurrentThreadCpuTimeSupported ();
+
+	public static class Phase {
+		final String name;
+		final AtomicLong count = new AtomicLong ();
+		final AtomicLong hits = new AtomicLong ();
+		final AtomicLong wall = new AtomicLong ();
+		final AtomicLong cpu = new AtomicLong ();
+
+		Phase (String name)
+		{
+			this.name = name;
+		}
+	}
+
+	public static class Span {
+		static final Span none = new Span (null);
+
+		final Phase phase;
+		final long wall;
+		final long cpu;
+		long wallTime;
+		long cpuTime;
+
+		Span (Phase phase)
+		{
+			this.phase = phase;
+			wall = phase != null ? System.nanoTime () : 0;
+			cpu = phase != null ? cpuTime () : 0;
+		}
+
+		public void end ()
+		{
+			end (false);
+		}
+
+		public void end (boolean hit)
+		{
+			if (phase == null)
+				return;
+			wallTime = System.nanoTime () - wall;
+			cpuTime = cpuTime () - cpu;
+			phase.count.incrementAndGet ();
+			if (hit)
+				phase.hits.incrementAndGet ();
+			phase.wall.addAndGet (wallTime);
+			phase.cpu.addAndGet (cpuTime);
+		}
+	}
+
+	static class ClassTime {
+		final String name;
+		final long wall;
+		final long cpu;
+
+		ClassTime (String name, long wall, long cpu)
+		{
+			this.name = name;
+			this.wall = wall;
+			this.cpu = cpu;
+		}
+	}
+
+	static final Comparator<ClassTime> by_wall = new Comparator<ClassTime> () {
+		public int compare (ClassTime c1, ClassTime c2)
+		{
+			return c1.wall < c2.wall ? -1 : c1.wall > c2.wall ? 1 : c1.name.compareTo (c2.name);
+		}
+	};
+
+	boolean enabled;
+	long started = System.nanoTime ();
+	long startedCpu;
+	String engine;
+	int threadCount;
+	// phases are listed in the order they first ran.
+	List<Phase> phaseList = new ArrayList<Phase> ();
+	Map<String,Phase> phases = new ConcurrentHashMap<String,Phase> ();
+	Map<String,Phase> scrapers = new ConcurrentHashMap<String,Phase> ();
+	Map<String,Phase> prefetches = new ConcurrentHashMap<String,Phase> ();
+	Map<String,Phase> packages = new ConcurrentHashMap<String,Phase> ();
+	Map<String,AtomicLong> counters = new ConcurrentHashMap<String,AtomicLong> ();
+	PriorityQueue<ClassTime> slowest = new PriorityQueue<ClassTime> (slowest_count + 1, by_wall);
+	AtomicLong toLoad = new AtomicLong ();
+	AtomicLong loaded = new AtomicLong ();
+	volatile long toAnalyse;
+	volatile long analysisStarted;
+	AtomicLong analysed = new AtomicLong ();
+	Thread progress;
+
+	RunStats ()
+	{
+	}
+
+	public RunStats (String engine, int threadCount)
+	{
+		enabled = true;
+		this.engine = engine;
+		this.threadCount = threadCount;
+		startedCpu = cpuTime ();
+	}
+
+	static long cpuTime ()
+	{
+		return has_cpu_time ? threads.getCurrentThreadCpuTime () : 0;
+	}
+
+	Phase getPhase (Map<String,Phase> map, String name)
+	{
+		Phase phase = map.get (name);
+		if (phase == null) {
+			synchronized (this) {
+				phase = map.get (name);
+				if (phase == null) {
+					phase = new Phase (name);
+					map.put (name, phase);
+					if (map == phases)
+						phaseList.add (phase);
+				}
+			}
+		}
+		return phase;
+	}
+
+	public Span begin (String phase)
+	{
+		return enabled ? new Span (getPhase (phases, phase)) : Span.none;
+	}
+
+	// A lookup of the given doc scraper; end it with whether it found the names.
+	public Span beginLookup (IDocScraper scraper)
+	{
+		return enabled ? new Span (getPhase (scrapers, scraper.getClass ().getSimpleName ())) : Span.none;
+	}
+
+	// A read ahead of the given doc scraper.
+	public Span beginPrefetch (IDocScraper scraper)
+	{
+		return enabled ? new Span (getPhase (prefetches, scraper.getClass ().getSimpleName ())) : Span.none;
+	}
+
+	public void count (String counter)
+	{
+		if (!enabled)
+			return;
+		AtomicLong value = counters.get (counter);
+		if (value == null) {
+			synchronized (this) {
+				value = counters.get (counter);
+				if (value == null) {
+					value = new AtomicLong ();
+					counters.put (counter, value);
+				}
+			}
+		}
+		value.incrementAndGet ();
+	}
+
+	// Class files found in the jars, to be read and loaded.
+	public void addClassFiles (int count)
+	{
+		if (enabled)
+			toLoad.addAndGet (count);
+	}
+
+	public void classLoaded ()
+	{
+		if (enabled)
+			loaded.incrementAndGet ();
+	}
+
+	public void startAnalysis (int classes)
+	{
+		if (!enabled)
+			return;
+		toAnalyse = classes;
+		analysisStarted = System.nanoTime ();
+	}
+
+	// Ends the analysis span of the given class (a class name with dots).
+	public void classAnalysed (String name, Span span)
+	{
+		if (!enabled)
+			return;
+		span.end ();
+		analysed.incrementAndGet ();
+		int dot = name.lastIndexOf ('.');
+		Phase pkg = getPhase (packages, dot < 0 ? "" : name.substring (0, dot));
+		pkg.count.incrementAndGet ();
+		pkg.wall.addAndGet (span.wallTime);
+		pkg.cpu.addAndGet (span.cpuTime);
+		synchronized (slowest) {
+			slowest.add (new ClassTime (name, span.wallTime, span.cpuTime));
+			if (slowest.size () > slowest_count)
+				slowest.remove ();
+		}
+	}
+
+	// Prints a progress line to out every period milliseconds, until stopProgress ().
+	public void startProgress (final long period, final PrintStream out)
+	{
+		progress = new Thread ("jar2xml progress") {
+			public void run ()
+			{
+				try {
+					while (true) {
+						Thread.sleep (period);
+						out.println (getProgress ());
+					}
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		progress.setDaemon (true);
+		progress.start ();
+	}
+
+	public void stopProgress ()
+	{
+		if (progress != null)
+			progress.interrupt ();
+		progress = null;
+	}
+
+	String getProgress ()
+	{
+		long total = toAnalyse;
+		if (analysisStarted == 0)
+			return "progress: loaded " + loaded.get () + "/" + toLoad.get () + " classes";
+		long done = analysed.get ();
+		String line = "progress: analysed " + done + "/" + total + " classes";
+		if (total > 0)
+			line += " (" + done * 100 / total + "%)";
+		if (done > 0 && done < total) {
+			long eta = (System.nanoTime () - analysisStarted) / done * (total - done) / 1000000000L;
+			line += String.format (Locale.ROOT, ", ETA %d:%02d", eta / 60, eta % 60);
+		}
+		return line;
+	}
+
+	public void write (String path) throws IOException
+	{
+		Writer w = new OutputStreamWriter (new FileOutputStream (path), "UTF-8");
+		try {
+			w.write ("{\n");
+			w.write ("  \"engine\": " + quote (engine) + ",\n");
+			w.write ("  \"threads\": " + threadCount + ",\n");
+			w.write ("  \"wall_ms\": " + ms (System.nanoTime () - started) + ",\n");
+			w.write ("  \"main_thread_cpu_ms\": " + ms (cpuTime () - startedCpu) + ",\n");
+			w.write ("  \"classes\": {\"files\": " + toLoad.get () + ", \"loaded\": " + loaded.get () + ", \"analysed\": " + analysed.get () + "},\n");
+
+			w.write ("  \"phases\": [");
+			List<Phase> list;
+			synchronized (this) {
+				list = new ArrayList<Phase> (phaseList);
+			}
+			writePhases (w, list, false);
+			w.write ("],\n");
+
+			w.write ("  \"scrapers\": [");
+			writePhases (w, new TreeMap<String,Phase> (scrapers).values (), true);
+			w.write ("],\n");
+
+			w.write ("  \"prefetches\": [");
+			writePhases (w, new TreeMap<String,Phase> (prefetches).values (), false);
+			w.write ("],\n");
+
+			w.write ("  \"counters\": {");
+			String sep = "";
+			for (Map.Entry<String,AtomicLong> e : new TreeMap<String,AtomicLong> (counters).entrySet ()) {
+				w.write (sep + quote (e.getKey ()) + ": " + e.getValue ().get ());
+				sep = ", ";
+			}
+			w.write ("},\n");
+
+			w.write ("  \"packages\": [");
+			writePhases (w, new TreeMap<String,Phase> (packages).values (), false);
+			w.write ("],\n");
+
+			w.write ("  \"slowest_classes\": [");
+			List<ClassTime> classes;
+			synchronized (slowest) {
+				classes = new ArrayList<ClassTime> (slowest);
+			}
+			Collections.sort (classes, Collections.reverseOrder (by_wall));
+			sep = "\n";
+			for (ClassTime c : classes) {
+				w.write (sep + "    {\"name\": " + quote (c.name) + ", \"wall_ms\": " + ms (c.wall) + ", \"cpu_ms\": " + ms (c.cpu) + "}");
+				sep = ",\n";
+			}
+			w.write (classes.isEmpty () ? "]\n" : "\n  ]\n");
+			w.write ("}\n");
+		} finally {
+			w.close ();
+		}
+	}
+
+	static void writePhases (Writer w, Iterable<Phase> phases, boolean lookups) throws IOException
+	{
+		boolean first = true;
+		for (Phase p : phases) {
+			w.write (first ? "\n" : ",\n");
+			first = false;
+			long count = p.count.get ();
+			w.write ("    {\"name\": " + quote (p.name));
+			if (lookups)
+				w.write (", \"lookups\": " + count + ", \"hits\": " + p.hits.get () + ", \"misses\": " + (count - p.hits.get ()));
+			else
+				w.write (", \"count\": " + count);
+			w.write (", \"wall_ms\": " + ms (p.wall.get ()) + ", \"cpu_ms\": " + ms (p.cpu.get ()) + "}");
+		}
+		if (!first)
+			w.write ("\n  ");
+	}
+
+	static String ms (long nanos)
+	{
+		return String.format (Locale.ROOT, "%.3f", nanos / 1000000.0);
+	}
+
+	static String quote (String s)
+	{
+		if (s == null)
+			return "null";
+		StringBuilder sb = new StringBuilder ("\"");
+		for (char c : s.toCharArray ()) {
+			if (c == '"' || c == '\\')
+				sb.append ('\\').append (c);
+			else if (c < 0x20)
+				sb.append (String.format ("\\u%04x", (int) c));
+			else
+				sb.append (c);
+		}
+		return sb.append ('"').toString ();
+	}
+}
@@ -24,41 +24,266 @@
 
 package jar2xml;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
+import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import jar2xml.scrapers.AndroidDocScraper;
+import jar2xml.scrapers.BytecodeScraper;
+import jar2xml.scrapers.DeprecatedMembers;
+import jar2xml.scrapers.DeprecatedScraper;
+import jar2xml.scrapers.DocIndex;
 import jar2xml.scrapers.DroidDocScraper;
+import jar2xml.scrapers.IndexedDocScraper;
 import jar2xml.scrapers.JavaDocScraper;
 import jar2xml.scrapers.source.SourcesScraper;
-import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
 
 public class Start {
 
 	public static void main (String[] args)
+	{
+		int status;
+		if (args.length > 0 && args [0].startsWith ("--daemon="))
+			status = Daemon.run (args);
+		else
+			status = dispatch (args, new SharedInputs (), null);
+		if (status != 0)
+			System.exit (status);
+	}
+
+	// Runs a command line in any mode but the daemon, for main () and the
+	// clients of a daemon. The relative paths of batch jobs are resolved
+	// against dir, unless it is null (see Daemon.resolve).
+	static int dispatch (String [] args, SharedInputs shared, String dir)
+	{
+		if (args.length > 0 && args [0].startsWith ("--batch="))
+			return runBatch (args, shared, dir);
+		else if (args.length > 0 && args [0].startsWith ("--index=") && hasOption (args, "--ref="))
+			return RefIndex.run (args);
+		else if (args.length > 0 && args [0].startsWith ("--index="))
+			return DocIndex.run (args);
+		else if (args.length > 0 && args [0].startsWith ("--deprecated="))
+			return DeprecatedScraper.run (args);
+		else
+			return run (args, shared);
+	}
+
+	static boolean hasOption (String [] args, String prefix)
+	{
+		for (String arg : args)
+			if (arg.startsWith (prefix))
+				return true;
+		return false;
+	}
+
+	// What the jobs of a batch share, besides the warmed up code: class skeletons,
+	// doc scrapers (and the pages they have indexed), annotations and reference
+	// indexes, by path.
+	// A daemon bounds them, dropping the least recently used.
+	static class SharedInputs {
+		ClassStore store;
+		Map<String,IDocScraper> scrapers;
+		Map<String,DeprecatedMembers> annotations;
+		Map<String,RefIndex> refIndexes;
+
+		SharedInputs ()
+		{
+			store = new ClassStore ();
+			scrapers = new HashMap<String,IDocScraper> ();
+			annotations = new HashMap<String,DeprecatedMembers> ();
+			refIndexes = new HashMap<String,RefIndex> ();
+		}
+
+		SharedInputs (int inputs, int classes)
+		{
+			store = new ClassStore (classes);
+			scrapers = lru (inputs);
+			annotations = lru (inputs);
+			refIndexes = lru (inputs);
+		}
+
+		static <T> Map<String,T> lru (final int capacity)
+		{
+			return new LinkedHashMap<String,T> (capacity, 0.75f, true) {
+				protected boolean removeEldestEntry (Map.Entry<String,T> eldest)
+				{
+					boolean full = size () > capacity;
+					// a job still using it opens the archives again.
+					if (full && eldest.getValue () instanceof SourcesScraper)
+						((SourcesScraper) eldest.getValue ()).close ();
+					if (full && eldest.getValue () instanceof RefIndex)
+						((RefIndex) eldest.getValue ()).close ();
+					return full;
+				}
+			};
+		}
+
+		synchronized IDocScraper getDocScraper (String kind, String path) throws Exception
+		{
+			String key = kind + ":" + path;
+			if (kind.equals ("docindex"))
+				key += "@" + new File (path).lastModified ();
+			IDocScraper scraper = scrapers.get (key);
+			if (scraper == null) {
+				if (kind.equals ("droiddoc"))
+					scraper = new DroidDocScraper (new File (path));
+				else if (kind.equals ("javadoc"))
+					scraper = new JavaDocScraper (new File (path));
+				else if (kind.equals ("docindex"))
+					scraper = new IndexedDocScraper (new File (path));
+				else {
+					// a source directory, or source archives (-sources.jar) in the order to look them up.
+					List<File> roots = new ArrayList<File> ();
+					for (String root : path.split (File.pathSeparator))
+						roots.add (new File (root));
+					SourcesScraper sources = new SourcesScraper (roots, SourcesScraper.DEFAULT_CACHE_SIZE);
+					if (kind.equals ("sourceindex"))
+						sources.buildIndex (Runtime.getRuntime ().availableProcessors ());
+					scraper = sources;
+				}
+//					scraper = new Java7DocScraper (new File (path));
+				scrapers.put (key, scraper);
+			}
+			return scraper;
+		}
+
+		// A reference index, opened again when it is rebuilt.
+		synchronized RefIndex getRefIndex (String path) throws Exception
+		{
+			String key = path + "@" + new File (path).lastModified ();
+			RefIndex index = refIndexes.get (key);
+			if (index == null) {
+				index = RefIndex.open (new File (path));
+				refIndexes.put (key, index);
+			} else
+				index.check ();
+			return index;
+		}
+
+		// An annotations file (parsed once per cache directory, if any), or a
+		// droiddoc tree to scrape the deprecated members from.
+		synchronized DeprecatedMembers getDeprecatedMembers (String path, File cacheDir) throws Exception
+		{
+			File file = new File (path);
+			String key = path + "@" + file.lastModified () + ":" + file.length ();
+			if (!annotations.containsKey (key))
+				annotations.put (key, file.isDirectory () ? DeprecatedScraper.extract (file) : AndroidDocScraper.loadXml (path, cacheDir));
+			return annotations.get (key);
+		}
+	}
+
+	// Runs the jobs listed in a manifest (one command line per line) in this process.
+	static int runBatch (String [] args, final SharedInputs shared, final String dir)
+	{
+		String manifest = null;
+		int jobs = 1;
+		String usage = "Usage: jar2xml --batch=<manifest> [--jobs=<n>]";
+		for (String arg : args) {
+			if (arg.startsWith ("--batch="))
+				manifest = arg.substring (8);
+			else if (arg.startsWith ("--jobs=")) {
+				try {
+					jobs = Integer.parseInt (arg.substring (7));
+				} catch (NumberFormatException e) {
+					jobs = 0;
+				}
+			} else
+				jobs = 0;
+			if (jobs < 1) {
+				System.err.println (usage);
+				return 1;
+			}
+		}
+
+		final List<String> lines = new ArrayList<String> ();
+		try {
+			BufferedReader reader = new BufferedReader (new FileReader (manifest));
+			try {
+				for (String line = reader.readLine (); line != null; line = reader.readLine ()) {
+					line = line.trim ();
+					if (line.length () > 0 && !line.startsWith ("#"))
+						lines.add (line);
+				}
+			} finally {
+				reader.close ();
+			}
+		} catch (Exception e) {
+			System.err.println ("error J2X0004: Couldn't read batch manifest : " + e);
+			return 1;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool (jobs);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>> ();
+		for (final String job : lines)
+			results.add (pool.submit (new Callable<Integer> () {
+				public Integer call ()
+				{
+					String [] args = job.split ("\\s+");
+					if (dir != null)
+						for (int i = 0; i < args.length; i++)
+							args [i] = Daemon.resolve (dir, args [i]);
+					return run (args, shared);
+				}
+			}));
+		int status = 0;
+		for (int i = 0; i < lines.size (); i++) {
+			int result;
+			try {
+				result = results.get (i).get ();
+			} catch (Exception e) {
+				e.printStackTrace ();
+				result = 1;
+			}
+			if (result != 0) {
+				System.err.println ("error J2X0005: batch job " + (i + 1) + " failed: " + lines.get (i));
+				status = result;
+			}
+		}
+		pool.shutdown ();
+		return status;
+	}
+
+	// Runs one job, returns the exit status.
+	static int run (String [] args, SharedInputs shared)
 	{
 		String droiddocs = null;
 		String javadocs = null;
 		String java7docs = null;
 		String annots = null;
+		String docindex = null;
+		String refindex = null;
 		List<String> jar_paths = new ArrayList<String> ();
 		String out_path = null;
 		List<String> additional_jar_paths = new ArrayList<String> ();
-		String usage = "Usage: jar2xml --jar=<jarfile> [--ref=<jarfile>] --out=<file> [--javadocpath=<javadoc>] [--java7docpath=<java7doc>] [--droiddocpath=<droiddoc>] [--annotations=<xmlfile>]";
+		int threads = 1;
+		boolean asm_engine = false;
+		boolean bytecode_names = false;
+		boolean source_index = false;
+		JavaArchive.Duplicates duplicates = JavaArchive.Duplicates.FIRST;
+		String cache_dir = null;
+		String stats_path = null;
+		int progress = 0;
+		List<String> settings = new ArrayList<String> ();
+		String usage = "Usage: jar2xml --jar=<jarfile> [--ref=<jarfile>] [--refindex=<file>] --out=<file> [--javadocpath=<javadoc>] [--java7docpath=<srcdir>|<sources.jar>[:...]] [--droiddocpath=<droiddoc>] [--annotations=<xmlfile>|<droiddoc>] [--docindex=<file>] [--sourceindex] [--bytecodenames] [--duplicates=first|last|error] [--threads=<n>] [--engine=reflection|asm] [--cache=<dir>] [--stats=<file>] [--progress=<seconds>]\n       jar2xml --index=<file> --droiddocpath=<droiddoc>|--javadocpath=<javadoc>|--java7htmlpath=<java7doc> [--jobs=<n>]\n       jar2xml --index=<file> --ref=<jarfile> [--ref=<jarfile>...] [--jobs=<n>]\n       jar2xml --deprecated=<droiddoc> --out=<xmlfile> [--jobs=<n>]\n       jar2xml --batch=<manifest> [--jobs=<n>]\n       jar2xml --daemon=<port>|- [--jobs=<n>]";
 
 		for (String arg : args) {
+			// anything that may change the output is part of the cache keys.
+			if (!arg.startsWith ("--out=") && !arg.startsWith ("--threads=") && !arg.startsWith ("--cache=")
+			    && !arg.startsWith ("--stats=") && !arg.startsWith ("--progress="))
+				settings.add (arg);
 			if (arg.startsWith ("--javadocpath=")) {
 				javadocs = arg.substring (14);
 				if (!javadocs.endsWith ("/"))
@@ -73,83 +298,202 @@ public class Start {
 					droiddocs += "/";
 			} else if (arg.startsWith ("--annotations=")) {
 				annots = arg.substring (14);
+			} else if (arg.startsWith ("--docindex=")) {
+				docindex = arg.substring (11);
+			} else if (arg.startsWith ("--refindex=")) {
+				refindex = arg.substring (11);
 			} else if (arg.startsWith ("--jar=")) {
 				jar_paths.add (arg.substring (6));
 			} else if (arg.startsWith ("--ref=")) {
 				additional_jar_paths.add (arg.substring (6));
 			} else if (arg.startsWith ("--out=")) {
 				out_path = arg.substring (6);
+			} else if (arg.startsWith ("--threads=")) {
+				try {
+					threads = Integer.parseInt (arg.substring (10));
+				} catch (NumberFormatException e) {
+					threads = 0;
+				}
+				if (threads < 1) {
+					System.err.println (usage);
+					return 1;
+				}
+			} else if (arg.startsWith ("--cache=")) {
+				cache_dir = arg.substring (8);
+			} else if (arg.startsWith ("--stats=")) {
+				stats_path = arg.substring (8);
+			} else if (arg.startsWith ("--progress=")) {
+				try {
+					progress = Integer.parseInt (arg.substring (11));
+				} catch (NumberFormatException e) {
+					progress = 0;
+				}
+				if (progress < 1) {
+					System.err.println (usage);
+					return 1;
+				}
+			} else if (arg.equals ("--duplicates=first")) {
+				duplicates = JavaArchive.Duplicates.FIRST;
+			} else if (arg.equals ("--duplicates=last")) {
+				duplicates = JavaArchive.Duplicates.LAST;
+			} else if (arg.equals ("--duplicates=error")) {
+				duplicates = JavaArchive.Duplicates.ERROR;
+			} else if (arg.equals ("--sourceindex")) {
+				source_index = true;
+			} else if (arg.equals ("--bytecodenames")) {
+				bytecode_names = true;
+			} else if (arg.equals ("--engine=asm")) {
+				asm_engine = true;
+			} else if (arg.equals ("--engine=reflection")) {
+				asm_engine = false;
 			} else {
 				System.err.println (usage);
-				System.exit (1);
+				return 1;
 			}
 		}
 
 		if (jar_paths.size() == 0 || out_path == null) {
 			System.err.println (usage);
-			System.exit (1);
+			return 1;
 		}
 		File dir = new File (out_path).getAbsoluteFile ().getParentFile ();
 		if (!dir.exists ())
 			dir.mkdirs ();
 
+		RunStats stats = RunStats.none;
+		if (stats_path != null || progress > 0)
+			stats = new RunStats (asm_engine ? "asm" : "reflection", threads);
+
+		RefIndex refs = null;
+		if (refindex != null) {
+			RunStats.Span span = stats.begin ("refindex");
+			try {
+				refs = shared.getRefIndex (refindex);
+			} catch (Exception e) {
+				System.err.println ("error J2X0012: Couldn't open the reference index " + refindex + " : " + e);
+				return 1;
+			}
+			span.end ();
+		}
+
 		JavaArchive jar = null;
 		try {
-			jar = new JavaArchive (jar_paths, additional_jar_paths);
+			jar = new JavaArchive (jar_paths, additional_jar_paths, refs, shared.store);
+			jar.setAsmEngine (asm_engine);
+			jar.setParameterNames (bytecode_names);
+			jar.setStats (stats);
+			jar.setDuplicates (duplicates);
 		} catch (Exception e) {
 			System.err.println ("error J2X0001: Couldn't open java archive : " + e);
-			System.exit (1);
+			return 1;
+		}
+		// classes found in several jars are reported before anything else is read.
+		if (jar.scan () > 0 && duplicates == JavaArchive.Duplicates.ERROR) {
+			jar.close ();
+			return 1;
 		}
 
 		try {
-			if (annots != null)
-				AndroidDocScraper.loadXml(annots);
+			if (annots != null) {
+				RunStats.Span span = stats.begin ("annotations");
+				jar.setDeprecatedMembers (shared.getDeprecatedMembers (annots, cache_dir != null ? new File (cache_dir) : null));
+				span.end ();
+			}
+			RunStats.Span span = stats.begin ("docs");
+			// names from the class files come first: the others have to read files.
+			if (bytecode_names)
+				jar.addDocScraper (new BytecodeScraper ());
 			if (droiddocs != null)
-				JavaClass.addDocScraper (new DroidDocScraper(new File (droiddocs)));
+				jar.addDocScraper (shared.getDocScraper ("droiddoc", droiddocs));
 			if (javadocs != null)
-				JavaClass.addDocScraper (new JavaDocScraper(new File (javadocs)));
+				jar.addDocScraper (shared.getDocScraper ("javadoc", javadocs));
 			if (java7docs != null)
-				JavaClass.addDocScraper (new SourcesScraper(new File (java7docs)));
-//				JavaClass.addDocScraper (new Java7DocScraper(new File (java7docs)));
+				jar.addDocScraper (shared.getDocScraper (source_index ? "sourceindex" : "java7doc", java7docs));
+			if (docindex != null)
+				jar.addDocScraper (shared.getDocScraper ("docindex", docindex));
+			span.end ();
 		} catch (Exception e) {
 			e.printStackTrace ();
 			System.err.println ("warning J2X8001: Couldn't access javadocs at specified docpath.  Continuing without it...");
 		}
 
-		Document doc = null;
+		if (cache_dir != null) {
+			// the doc trees are keyed per class, on the page or source read (see IDocVersion).
+			List<File> inputs = new ArrayList<File> ();
+			for (String path : new String [] {annots, docindex})
+				if (path != null)
+					inputs.add (new File (path));
+			// constructors are sorted with more than one thread (see JavaArchive.sortsConstructors).
+			if (threads > 1)
+				settings.add ("sorted-constructors");
+			try {
+				ApiCache cache = new ApiCache (new File (cache_dir), settings, inputs);
+				jar.setCache (cache);
+			} catch (Exception e) {
+				e.printStackTrace ();
+				System.err.println ("warning J2X7000: Couldn't set up the cache directory.  Continuing without it...");
+			}
+		}
+
+		ApiWriter writer = null;
 		try {
-			DocumentBuilderFactory builder_factory = DocumentBuilderFactory.newInstance ();
-			DocumentBuilder builder = builder_factory.newDocumentBuilder ();
-			doc = builder.newDocument ();
+			writer = new ApiWriter (out_path);
+			writer.setStats (stats);
 		} catch (Exception e) {
-			System.err.println ("warning J2X8002: Couldn't create xml document - exception occurred:" + e.getMessage ());
+			System.err.println ("error J2X0003: Couldn't format xml file - exception occurred:" + e.getMessage ());
+			jar.close ();
+			return 1;
 		}
 
+		ExecutorService pool = null;
+		if (threads > 1) {
+			pool = new ForkJoinPool (threads);
+			jar.setExecutor (pool);
+		}
+
+		if (progress > 0)
+			stats.startProgress (progress * 1000L, System.err);
+
 		try {
-			Element root = doc.createElement ("api");
-			doc.appendChild (root);
-			for (JavaPackage pkg : jar.getPackages ())
-				pkg.appendToDocument (doc, root);
+			Element root = writer.getDocument ().createElement ("api");
+			writer.startElement (root);
+			List<JavaPackage> packages = jar.getPackages ();
+			int classes = 0;
+			for (JavaPackage pkg : packages)
+				classes += pkg.getClasses ().size ();
+			stats.startAnalysis (classes);
+			AnalysisQueue queue = pool != null ? new AnalysisQueue (packages, pool, threads * 4) : null;
+			for (JavaPackage pkg : packages)
+				pkg.appendToDocument (writer, queue);
+			writer.endElement (root);
+			writer.close ();
+		} catch (SAXException e) {
+			System.err.println ("error J2X0003: Couldn't format xml file - exception occurred:" + e.getMessage ());
+			return 1;
+		} catch (IOException e) {
+			System.err.println ("error J2X0003: Couldn't format xml file - exception occurred:" + e.getMessage ());
+			return 1;
 		} catch (Exception e) {
 			e.printStackTrace ();
 			System.err.println ("error J2X0002: API analyzer failed with java exception. See verbose output for details.");
-			System.exit (1);
+			return 1;
+		} finally {
+			stats.stopProgress ();
+			if (pool != null)
+				pool.shutdown ();
+			jar.close ();
+			// Batches and the daemon run many jobs in one process.
+			writer.abort ();
 		}
 
-		try {
-			TransformerFactory transformer_factory = TransformerFactory.newInstance ();
-			Transformer transformer = transformer_factory.newTransformer ();
-			transformer.setOutputProperty (OutputKeys.INDENT, "yes");
-			FileOutputStream stream = new FileOutputStream(out_path);
-			OutputStreamWriter writer = new OutputStreamWriter(stream,"UTF-8");
-			StreamResult result = new StreamResult (writer);
-			DOMSource source = new DOMSource (doc);
-			transformer.transform (source, result);
-			writer.close ();
-		} catch (Exception e) {
-			System.err.println ("error J2X0003: Couldn't format xml file - exception occurred:" + e.getMessage ());
-			System.exit (1);
+		if (stats_path != null) {
+			try {
+				stats.write (stats_path);
+			} catch (Exception e) {
+				System.err.println ("warning J2X7003: Couldn't write the run statistics : " + e);
+			}
 		}
+		return 0;
 	}
 }
 
@@ -24,8 +24,6 @@
 
 package jar2xml.scrapers;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
@@ -33,21 +31,20 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.reflect.Type;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import jar2xml.Events;
+import jar2xml.ClassSkeleton;
+import jar2xml.IDocPrefetcher;
 import jar2xml.IDocScraper;
+import jar2xml.IDocVersion;
 import jar2xml.JavaClass;
-import org.objectweb.asm.tree.ClassNode;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
-public abstract class AndroidDocScraper implements IDocScraper {
+public abstract class AndroidDocScraper implements IDocScraper, IDocPrefetcher, IDocVersion {
 
 	final String pattern_head;
 	final String reset_pattern_head;
@@ -58,14 +55,11 @@ public abstract class AndroidDocScraper implements IDocScraper {
 
 	protected AndroidDocScraper (File dir, String patternHead, String resetPatternHead, String parameterPairSplitter, boolean continuousParamLines) throws IOException {
 
+		this (patternHead, resetPatternHead, parameterPairSplitter, continuousParamLines);
+
 		if (dir == null)
 			throw new IllegalArgumentException ();
 
-		pattern_head = patternHead;
-		reset_pattern_head = resetPatternHead;
-		parameter_pair_splitter = parameterPairSplitter != null ? parameterPairSplitter : "\\s+";
-		continuous_param_lines = continuousParamLines;
-
 		if (!dir.exists())
 			throw new FileNotFoundException (dir.getAbsolutePath());
 
@@ -79,24 +73,76 @@ public abstract class AndroidDocScraper implements IDocScraper {
 			throw new IllegalArgumentException (dir.getAbsolutePath() + " does not appear to be an android doc reference directory.");
 	}
 
-	public String[] getParameterNames (ClassNode asm, String name, Type[] ptypes, boolean isVarArgs)
+	// For scrapers whose pages do not come from a doc directory (see IndexedDocScraper).
+	protected AndroidDocScraper (String patternHead, String resetPatternHead, String parameterPairSplitter, boolean continuousParamLines) {
+		pattern_head = patternHead;
+		reset_pattern_head = resetPatternHead;
+		parameter_pair_splitter = parameterPairSplitter != null ? parameterPairSplitter : "\\s+";
+		continuous_param_lines = continuousParamLines;
+	}
+
+	// Creates the scraper of the given doc flavour: droiddoc, javadoc or java7doc.
+	public static AndroidDocScraper create (String flavour, File dir) throws IOException
+	{
+		if (flavour.equals ("droiddoc"))
+			return new DroidDocScraper (dir);
+		if (flavour.equals ("javadoc"))
+			return new JavaDocScraper (dir);
+		if (flavour.equals ("java7doc"))
+			return new Java7DocScraper (dir);
+		throw new IllegalArgumentException ("unknown doc flavour " + flavour);
+	}
+
+	public String[] getParameterNames (ClassSkeleton asm, String name, Type[] ptypes, boolean isVarArgs)
 	{
 		String path = asm.name.replace ('$', '.') + ".html";
-		File file = new File(root.getPath() + "/" + path);
-		if (!file.isFile ()) {
-			// System.err.println ("Warning: no document found : " + file);
+		Map<String,String> page;
+		try {
+			page = getPage (path);
+		} catch (Exception e) {
+			// System.err.println ("ERROR " + e);
+			return new String [0];
+		}
+		return getParameterNames (page, path, name, ptypes, isVarArgs);
+	}
+
+	// Reads the page of the class, which its lookups then use.
+	public IDocScraper prefetch (ClassSkeleton asm)
+	{
+		final String path = asm.name.replace ('$', '.') + ".html";
+		final Map<String,String> page;
+		try {
+			page = getPage (path);
+		} catch (Exception e) {
+			return this;
+		}
+		return new IDocScraper () {
+			public String[] getParameterNames (ClassSkeleton asm, String name, Type[] ptypes, boolean isVarArgs)
+			{
+				return AndroidDocScraper.this.getParameterNames (page, path, name, ptypes, isVarArgs);
+			}
+		};
+	}
+
+	// The page of the class; an IndexedDocScraper reads it from its index when
+	// it is current, so the index itself is a (whole) input of the cache.
+	public String getDocVersion (ClassSkeleton asm)
+	{
+		File file = new File (root.getPath () + "/" + asm.name.replace ('$', '.') + ".html");
+		return file.getPath () + ":" + file.length () + ":" + file.lastModified ();
+	}
+
+	String[] getParameterNames (Map<String,String> page, String path, String name, Type[] ptypes, boolean isVarArgs)
+	{
+		if (page == null) {
+			// System.err.println ("Warning: no document found : " + root.getPath() + "/" + path);
 			return null;
 		}
 
-		StringBuffer buffer = new StringBuffer ();
-		buffer.append (pattern_head);
-		buffer.append (path);
-		buffer.append ("#");
-		buffer.append (name);
-		buffer.append ("\\(\\Q");
+		StringBuffer types = new StringBuffer ();
 		for (int i = 0; i < ptypes.length; i++) {
 			if (i != 0)
-				buffer.append (", ");
+				types.append (", ");
 			String type = JavaClass.getGenericTypeName(ptypes[i]);
 			if (isVarArgs && i == ptypes.length - 1)
 				type = type.replace ("[]", "...");
@@ -105,97 +151,125 @@ public abstract class AndroidDocScraper implements IDocScraper {
 			// android-support-4 parse regression. We need to revisit here later.
 			//if (type.indexOf ('<') > 0) // remove generic args in href
 			//	type = type.substring (0, type.indexOf ('<'));
-			buffer.append (type);
+			types.append (type);
 		}
-		buffer.append("\\E\\)\".*\\((.*)\\)");
-		Pattern pattern = Pattern.compile (buffer.toString());
 
+		String plist = page.get (name + "(" + types + ")");
+		if (plist == null) {
+			// System.err.println ("Warning : no match for " + asm.name + " :: " + name);
+			return new String [0];
+		}
 		try {
-			FileInputStream stream = new FileInputStream (file);
-			try {
-				InputStreamReader rdr;
-				rdr = new InputStreamReader (stream, "UTF-8");
-				BufferedReader br = new BufferedReader (rdr);
-				String text = "";
-				String prev = null;
-				while ((text = br.readLine ()) != null) {
-					if (prev != null)
-						prev = text = prev + text;
-					Matcher matcher = pattern.matcher (text);
-					if (matcher.find ()) {
-						String plist = matcher.group (1);
-						String[] parms = plist.split (", ");
-						if (parms.length != ptypes.length)
-							System.err.println ("failed matching " + buffer.toString ());
-						String[] result = new String [ptypes.length];
-						for (int i = 0; i < ptypes.length; i++) {
-							String[] toks = parms [i].split (parameter_pair_splitter);
-							result [i] = toks [toks.length - 1];
-						}
-						stream.close();
-						return result;
-					}
-					// sometimes we get incomplete tag, so cache it until it gets complete or matched.
-					// I *know* this is a hack.
-					if (reset_pattern_head == null || text.endsWith (">") || !continuous_param_lines && !text.startsWith (reset_pattern_head))
-						prev = null;
-					else
-						prev = text;
-				}
-			} finally {			
-				stream.close();
+			String[] parms = plist.split (", ");
+			if (parms.length != ptypes.length)
+				System.err.println ("failed matching " + pattern_head + path + "#" + name + "\\(\\Q" + types + "\\E\\)\".*\\((.*)\\)");
+			String[] result = new String [ptypes.length];
+			for (int i = 0; i < ptypes.length; i++) {
+				String[] toks = parms [i].split (parameter_pair_splitter);
+				result [i] = toks [toks.length - 1];
 			}
+			return result;
 		} catch (Exception e) {
-			// System.err.println ("ERROR " + e);
 			return new String [0];
 		}
+	}
+
+	static final int page_cache_size = 64;
+	static final Map<String,String> missing_page = new HashMap<String,String> ();
+	static final Pattern param_list_tail = Pattern.compile ("\\)\".*\\((.*)\\)");
+
+	// Pages are indexed once and kept in a small LRU cache, as all the lookups
+	// for a class come in a row while huge doc trees must not be pinned in memory.
+	// They are keyed by modification time too, as a daemon outlives doc updates.
+	Map<String,Map<String,String>> pages = new LinkedHashMap<String,Map<String,String>> (page_cache_size, 0.75f, true) {
+		protected boolean removeEldestEntry (Map.Entry<String,Map<String,String>> eldest)
+		{
+			return size () > page_cache_size;
+		}
+	};
 
-		// System.err.println ("Warning : no match for " + asm.name + " :: " + name);
-		return new String [0];
+	Map<String,String> getPage (String path) throws IOException
+	{
+		Map<String,String> page;
+		File file = new File(root.getPath() + "/" + path);
+		String key = path + "@" + file.lastModified ();
+		synchronized (pages) {
+			page = pages.get (key);
+		}
+		if (page == null) {
+			// indexing is done outside the lock; concurrent lookups of a page may index it twice.
+			page = file.isFile () ? indexPage (file, path) : missing_page;
+			if (page != missing_page)
+				Events.fileRead (file.length ());
+			synchronized (pages) {
+				pages.put (key, page);
+			}
+		}
+		return page == missing_page ? null : page;
 	}
-	
-	static Map<String,List<String>> deprecatedFields;
-	static Map<String,List<String>> deprecatedMethods;
-	
-	public static void loadXml (String filename)
+
+	// Builds a map from "name(types)" to the parameter list text of every
+	// method anchor in the page. The lines are examined in exactly the same way
+	// as they used to be matched against the per-method regex, and the first
+	// matching line for each signature wins.
+	protected Map<String,String> indexPage (File file, String path) throws IOException
 	{
-		try {
+		Map<String,String> page = new HashMap<String,String> ();
+		String anchor = path + "#";
+		Matcher head = Pattern.compile (pattern_head + Pattern.quote (anchor) + "$").matcher ("");
+		Matcher tail = param_list_tail.matcher ("");
 
-			Document doc = DocumentBuilderFactory.newInstance ().newDocumentBuilder ().parse (filename);
-			deprecatedFields = new HashMap<String,List<String>> ();
-			deprecatedMethods = new HashMap<String,List<String>> ();
-			NodeList files = doc.getDocumentElement ().getElementsByTagName ("file");
-			for (int i = 0; i < files.getLength (); i++) {
-				Element file = (Element) files.item (i);
-				ArrayList<String> f = new ArrayList<String> ();
-				deprecatedFields.put (file.getAttribute ("name"), f);
-				NodeList fields = file.getElementsByTagName ("field");
-				for (int j = 0; j < fields.getLength (); j++)
-					f.add (fields.item (j).getTextContent ());
-
-				ArrayList<String> m = new ArrayList<String> ();
-				deprecatedMethods.put (file.getAttribute ("name"), m);
-				NodeList methods = file.getElementsByTagName ("method");
-				for (int j = 0; j < methods.getLength (); j++)
-					m.add (methods.item (j).getTextContent ());
+		FileInputStream stream = new FileInputStream (file);
+		try {
+			BufferedReader br = new BufferedReader (new InputStreamReader (stream, "UTF-8"));
+			String text = "";
+			String prev = null;
+			while ((text = br.readLine ()) != null) {
+				if (prev != null)
+					prev = text = prev + text;
+				for (int idx = text.indexOf (anchor); idx >= 0; idx = text.indexOf (anchor, idx + 1)) {
+					int nameStart = idx + anchor.length ();
+					int open = text.indexOf ('(', nameStart);
+					int close = open < 0 ? -1 : text.indexOf (")\"", open);
+					if (close < 0)
+						break;
+					String key = text.substring (nameStart, close + 1);
+					if (page.containsKey (key))
+						continue;
+					head.reset (text).region (0, nameStart);
+					if (!head.find ())
+						continue;
+					tail.reset (text).region (close, text.length ());
+					if (tail.lookingAt ())
+						page.put (key, tail.group (1));
+				}
+				// sometimes we get incomplete tag, so cache it until it gets complete or matched.
+				// I *know* this is a hack.
+				if (reset_pattern_head == null || text.endsWith (">") || !continuous_param_lines && !text.startsWith (reset_pattern_head))
+					prev = null;
+				else
+					prev = text;
 			}
-		
-		} catch (Exception ex) {
-			System.err.println ("Annotations parser error: " + ex);
+		} finally {
+			stream.close();
 		}
+		return page;
 	}
 	
-	public static List<String> getDeprecatedFields (ClassNode asm)
+	// Returns null if the file could not be loaded.
+	public static DeprecatedMembers loadXml (String filename)
 	{
-		if (deprecatedFields == null)
-			return null;
-		return deprecatedFields.get (asm.name.replace ('$', '.'));
+		return loadXml (filename, null);
 	}
-	
-	public static List<String> getDeprecatedMethods (ClassNode asm)
+
+	// Keeps a binary copy of the parsed file in cacheDir, unless it is null.
+	public static DeprecatedMembers loadXml (String filename, File cacheDir)
 	{
-		if (deprecatedMethods == null)
+		try {
+			return DeprecatedMembers.load (new File (filename), cacheDir);
+		} catch (Exception ex) {
+			System.err.println ("Annotations parser error: " + ex);
 			return null;
-		return deprecatedMethods.get (asm.name.replace ('$', '.'));
+		}
 	}
 }
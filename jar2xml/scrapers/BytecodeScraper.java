@@ -0,0 +1,111 @@
+package jar2xml.scrapers;
+
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+
+import org.objectweb.asm.Opcodes;
+
+import jar2xml.AsmType;
+import jar2xml.ClassSkeleton;
+import jar2xml.IDocScraper;
+
+// Answers from the parameter names recorded in the class files themselves
+// (see ClassSkeleton.read ()). It reads no file, so it goes first in the
+// chain and the other scrapers only get the methods it has no names for.
+//
+// The looked up types come from the generic signature when there is one,
+// which leaves out the synthetic parameters of some constructors (the outer
+// instance of inner classes, the name and ordinal of enum constants), so those
+// are matched against the end of the descriptor. Type variables match any
+// reference type; a lookup that matches several methods gets no answer.
+public class BytecodeScraper implements IDocScraper {
+
+	public String[] getParameterNames (ClassSkeleton asm, String name, Type[] ptypes, boolean isVarArgs)
+	{
+		boolean ctor = name.equals (asm.name.substring (asm.name.lastIndexOf ('/') + 1).replace ('$', '.'));
+		String methodName = ctor ? "<init>" : name;
+		if (!hasNames (asm, methodName))
+			return null;
+		int synthetic = (asm.access & Opcodes.ACC_ENUM) != 0 ? 2 : asm.declaringClass != null && (asm.modifiers & Opcodes.ACC_STATIC) == 0 ? 1 : 0;
+		String [] descs = new String [ptypes.length];
+		for (int i = 0; i < ptypes.length; i++)
+			descs [i] = getDescriptor (ptypes [i]);
+
+		ClassSkeleton.Method match = null;
+		for (ClassSkeleton.Method m : asm.methods) {
+			if (!m.name.equals (methodName) || (m.access & Opcodes.ACC_SYNTHETIC) != 0)
+				continue;
+			org.objectweb.asm.Type [] args = org.objectweb.asm.Type.getArgumentTypes (m.desc);
+			int offset = ctor && m.signature != null ? synthetic : 0;
+			if (args.length != offset + ptypes.length || !matches (args, offset, descs))
+				continue;
+			if (match != null)
+				return null;
+			match = m;
+		}
+		if (match == null || match.parameterNames == null)
+			return null;
+
+		int offset = match.parameterNames.length - ptypes.length;
+		String [] names = new String [ptypes.length];
+		for (int i = 0; i < names.length; i++) {
+			names [i] = match.parameterNames [offset + i];
+			// a synthetic parameter, which is not written out.
+			if (names [i] == null && ctor && offset + i < synthetic)
+				names [i] = "p" + i;
+			else if (names [i] == null)
+				return null;
+		}
+		return names;
+	}
+
+	// Whether the class files give names to all the parameters of the class,
+	// in which case the other scrapers need not read anything for it.
+	public static boolean hasNames (ClassSkeleton asm)
+	{
+		for (ClassSkeleton.Method m : asm.methods)
+			if (m.parameterNames == null && (m.access & Opcodes.ACC_SYNTHETIC) == 0 && !m.desc.startsWith ("()"))
+				return false;
+		return true;
+	}
+
+	static boolean hasNames (ClassSkeleton asm, String name)
+	{
+		for (ClassSkeleton.Method m : asm.methods)
+			if (m.parameterNames != null && m.name.equals (name))
+				return true;
+		return false;
+	}
+
+	static boolean matches (org.objectweb.asm.Type [] args, int offset, String [] descs)
+	{
+		for (int i = 0; i < descs.length; i++) {
+			String arg = args [offset + i].getDescriptor ();
+			if (descs [i] == null ? arg.length () == 1 : !descs [i].equals (arg))
+				return false;
+		}
+		return true;
+	}
+
+	// The descriptor of the erasure of t, or null for a type variable of unknown bounds.
+	static String getDescriptor (Type t)
+	{
+		if (t instanceof Class)
+			return org.objectweb.asm.Type.getDescriptor ((Class) t);
+		if (t instanceof AsmType.Raw)
+			return ((AsmType.Raw) t).getAsmType ().getDescriptor ();
+		if (t instanceof ParameterizedType)
+			return getDescriptor (((ParameterizedType) t).getRawType ());
+		if (t instanceof GenericArrayType) {
+			String component = getDescriptor (((GenericArrayType) t).getGenericComponentType ());
+			return component != null ? "[" + component : null;
+		}
+		if (t instanceof TypeVariable) {
+			Type [] bounds = ((TypeVariable) t).getBounds ();
+			return bounds.length > 0 ? getDescriptor (bounds [0]) : null;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,246 @@
+/* 
+ *  Copyright (c) 2011 Xamarin Inc.
+ * 
+ *  Permission is hereby granted, free of charge, to any person 
+ *  obtaining a copy of this software and associated documentation 
+ *  files (the "Software"), to deal in the Software without restriction, 
+ *  including without limitation the rights to use, copy, modify, merge, 
+ *  publish, distribute, sublicense, and/or sell copies of the Software, 
+ *  and to permit persons to whom the Software is furnished to do so, 
+ *  subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be 
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES 
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS 
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN 
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE 
+ *  SOFTWARE.
+ */
+
+
+package jar2xml.scrapers;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jar2xml.ClassSkeleton;
+
+// Deprecated fields and methods per class, as listed in an annotations file.
+// Immutable once loaded, so that one instance can serve concurrent jobs.
+//
+// The file is read with a streaming parser into a set per class, whose
+// signatures (often the same across classes) are shared. The parsed result
+// can be kept in a cache directory, in a binary form that is read again as
+// long as the annotations file keeps its size and modification time.
+public class DeprecatedMembers {
+
+	static final int magic = 0x4a325844; // J2XD
+	static final int version = 1;
+
+	Map<String,Set<String>> fields;
+	Map<String,Set<String>> methods;
+
+	DeprecatedMembers (Map<String,Set<String>> fields, Map<String,Set<String>> methods)
+	{
+		this.fields = fields;
+		this.methods = methods;
+	}
+
+	public Set<String> getFields (ClassSkeleton asm)
+	{
+		return fields.get (asm.name.replace ('$', '.'));
+	}
+
+	public Set<String> getMethods (ClassSkeleton asm)
+	{
+		return methods.get (asm.name.replace ('$', '.'));
+	}
+
+	// Loads an annotations file, through a binary copy in cacheDir unless it is null.
+	public static DeprecatedMembers load (File file, File cacheDir) throws Exception
+	{
+		File cached = cacheDir != null ? getCacheFile (file, cacheDir) : null;
+		if (cached != null && cached.isFile ()) {
+			try {
+				DeprecatedMembers members = readCache (cached, file);
+				if (members != null)
+					return members;
+			} catch (IOException e) {
+				System.err.println ("warning J2X7001: Couldn't read cache entry " + cached + " : " + e);
+			}
+		}
+
+		DeprecatedMembers members = parse (file);
+		if (cached != null)
+			members.writeCache (cached, file);
+		return members;
+	}
+
+	static DeprecatedMembers parse (File file) throws Exception
+	{
+		Map<String,Set<String>> fields = new HashMap<String,Set<String>> ();
+		Map<String,Set<String>> methods = new HashMap<String,Set<String>> ();
+		Map<String,String> strings = new HashMap<String,String> ();
+		InputStream stream = new BufferedInputStream (new FileInputStream (file));
+		try {
+			XMLStreamReader reader = XMLInputFactory.newInstance ().createXMLStreamReader (stream);
+			Set<String> f = null;
+			Set<String> m = null;
+			while (reader.hasNext ()) {
+				int event = reader.next ();
+				if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName ().equals ("file"))
+					f = m = null;
+				if (event != XMLStreamConstants.START_ELEMENT)
+					continue;
+				String tag = reader.getLocalName ();
+				if (tag.equals ("file")) {
+					String name = reader.getAttributeValue (null, "name");
+					if (name == null)
+						name = "";
+					f = new HashSet<String> ();
+					m = new HashSet<String> ();
+					fields.put (name, f);
+					methods.put (name, m);
+				} else if (tag.equals ("field") && f != null)
+					f.add (intern (strings, reader.getElementText ()));
+				else if (tag.equals ("method") && m != null)
+					m.add (intern (strings, reader.getElementText ()));
+			}
+			reader.close ();
+		} finally {
+			stream.close ();
+		}
+		return new DeprecatedMembers (fields, methods);
+	}
+
+	static String intern (Map<String,String> strings, String s)
+	{
+		String shared = strings.get (s);
+		if (shared != null)
+			return shared;
+		strings.put (s, s);
+		return s;
+	}
+
+	static File getCacheFile (File file, File cacheDir)
+	{
+		String path = file.getAbsolutePath ();
+		return new File (cacheDir, "annotations-" + Integer.toHexString (path.hashCode ()) + ".bin");
+	}
+
+	// Returns null if the cache file is of another annotations file, or an older one.
+	static DeprecatedMembers readCache (File cached, File file) throws IOException
+	{
+		DataInputStream in = new DataInputStream (new BufferedInputStream (new FileInputStream (cached)));
+		try {
+			if (in.readInt () != magic || in.readInt () != version)
+				return null;
+			if (!in.readUTF ().equals (file.getAbsolutePath ()) || in.readLong () != file.length () || in.readLong () != file.lastModified ())
+				return null;
+			String [] strings = new String [in.readInt ()];
+			for (int i = 0; i < strings.length; i++)
+				strings [i] = in.readUTF ();
+			Map<String,Set<String>> fields = new HashMap<String,Set<String>> ();
+			Map<String,Set<String>> methods = new HashMap<String,Set<String>> ();
+			for (int classes = in.readInt (); classes > 0; classes--) {
+				String name = strings [in.readInt ()];
+				fields.put (name, readSet (in, strings));
+				methods.put (name, readSet (in, strings));
+			}
+			return new DeprecatedMembers (fields, methods);
+		} finally {
+			in.close ();
+		}
+	}
+
+	static Set<String> readSet (DataInputStream in, String [] strings) throws IOException
+	{
+		int count = in.readInt ();
+		Set<String> set = new HashSet<String> (count * 2);
+		for (int i = 0; i < count; i++)
+			set.add (strings [in.readInt ()]);
+		return set;
+	}
+
+	void writeCache (File cached, File file)
+	{
+		File tmp = null;
+		try {
+			List<String> strings = new ArrayList<String> ();
+			Map<String,Integer> indexes = new HashMap<String,Integer> ();
+			for (String name : fields.keySet ()) {
+				index (strings, indexes, name);
+				for (String s : fields.get (name))
+					index (strings, indexes, s);
+				for (String s : methods.get (name))
+					index (strings, indexes, s);
+			}
+
+			cached.getParentFile ().mkdirs ();
+			tmp = File.createTempFile ("annotations", ".tmp", cached.getParentFile ());
+			DataOutputStream out = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (tmp)));
+			try {
+				out.writeInt (magic);
+				out.writeInt (version);
+				out.writeUTF (file.getAbsolutePath ());
+				out.writeLong (file.length ());
+				out.writeLong (file.lastModified ());
+				out.writeInt (strings.size ());
+				for (String s : strings)
+					out.writeUTF (s);
+				out.writeInt (fields.size ());
+				for (String name : fields.keySet ()) {
+					out.writeInt (indexes.get (name));
+					writeSet (out, indexes, fields.get (name));
+					writeSet (out, indexes, methods.get (name));
+				}
+			} finally {
+				out.close ();
+			}
+			Files.move (tmp.toPath (), cached.toPath (), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (Exception e) {
+			if (tmp != null)
+				tmp.delete ();
+			System.err.println ("warning J2X7002: Couldn't write cache entry " + cached + " : " + e);
+		}
+	}
+
+	static void index (List<String> strings, Map<String,Integer> indexes, String s)
+	{
+		if (!indexes.containsKey (s)) {
+			indexes.put (s, strings.size ());
+			strings.add (s);
+		}
+	}
+
+	static void writeSet (DataOutputStream out, Map<String,Integer> indexes, Set<String> set) throws IOException
+	{
+		out.writeInt (set.size ());
+		for (String s : set)
+			out.writeInt (indexes.get (s));
+	}
+}
@@ -0,0 +1,530 @@
+package jar2xml.scrapers;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Lists the deprecated fields and methods of a droiddoc tree, as the
+// annotations file that AndroidDocScraper.loadXml () reads.
+//
+// This used to be shell scripts running xmllint and xmlstarlet on every page,
+// then a C# program (scraper.cs). Now pages are parsed into a tree the way an
+// HTML parser would (implied end tags included), the nodes of the same two
+// XPath expressions are selected, and their text is split into members the
+// way scraper.cs did:
+//
+//	fields   //p[@class='caution']/../../h4[@class='jd-details-title']/text()
+//	methods  //p[@class='caution']/ancestor::div[h4/@class='jd-details-title'
+//	           and h4/span/@class='sympad']/h4/descendant::text()
+public class DeprecatedScraper {
+
+	static class Node {
+		final String tag; // null for text
+		final String cls;
+		final String text;
+		final Node parent;
+		final List<Node> children = new ArrayList<Node> ();
+
+		Node (Node parent, String tag, String cls, String text)
+		{
+			this.parent = parent;
+			this.tag = tag;
+			this.cls = cls;
+			this.text = text;
+			if (parent != null)
+				parent.children.add (this);
+		}
+
+		boolean is (String tag, String cls)
+		{
+			return tag.equals (this.tag) && (cls == null || cls.equals (this.cls));
+		}
+
+		Node getChild (String tag, String cls)
+		{
+			for (Node n : children)
+				if (n.is (tag, cls))
+					return n;
+			return null;
+		}
+
+		void appendTexts (StringBuilder sb, boolean descendants)
+		{
+			for (Node n : children) {
+				if (n.tag == null)
+					sb.append (n.text);
+				else if (descendants)
+					n.appendTexts (sb, true);
+			}
+		}
+	}
+
+	static class Members {
+		List<String> fields;
+		List<String> methods;
+	}
+
+	static final Set<String> void_elements = new HashSet<String> (Arrays.asList (
+		"area", "base", "basefont", "br", "col", "embed", "frame", "hr", "img", "input", "isindex", "link", "meta", "param", "source", "wbr"));
+	static final Set<String> raw_text_elements = new HashSet<String> (Arrays.asList ("script", "style"));
+	// start tags that end an open paragraph.
+	static final Set<String> closes_p = new HashSet<String> (Arrays.asList (
+		"address", "blockquote", "center", "dir", "div", "dl", "fieldset", "form", "h1", "h2", "h3", "h4", "h5", "h6",
+		"hr", "listing", "menu", "ol", "p", "pre", "table", "ul", "xmp"));
+
+	// Whether the start tag of the given element ends the element open at the top.
+	static boolean closes (String tag, String open)
+	{
+		if (open.equals ("p"))
+			return closes_p.contains (tag);
+		if (open.equals ("li"))
+			return tag.equals ("li");
+		if (open.equals ("dt") || open.equals ("dd"))
+			return tag.equals ("dt") || tag.equals ("dd");
+		if (open.equals ("td") || open.equals ("th"))
+			return tag.equals ("td") || tag.equals ("th") || tag.equals ("tr");
+		if (open.equals ("tr"))
+			return tag.equals ("tr");
+		if (open.equals ("option"))
+			return tag.equals ("option");
+		return false;
+	}
+
+	// Parses a page into its element tree; only class attributes are kept.
+	static Node parse (String html)
+	{
+		Node root = new Node (null, "#document", null, null);
+		Node current = root;
+		StringBuilder text = new StringBuilder ();
+		int i = 0, length = html.length ();
+		while (i < length) {
+			char c = html.charAt (i);
+			if (c != '<' || i + 1 == length) {
+				text.append (c);
+				i++;
+				continue;
+			}
+			char next = html.charAt (i + 1);
+			if (html.startsWith ("<!--", i)) {
+				int end = html.indexOf ("-->", i + 4);
+				i = end < 0 ? length : end + 3;
+				continue;
+			}
+			if (next == '!' || next == '?') {
+				int end = html.indexOf ('>', i);
+				i = end < 0 ? length : end + 1;
+				continue;
+			}
+			boolean closing = next == '/';
+			int nameStart = closing ? i + 2 : i + 1;
+			int nameEnd = nameStart;
+			while (nameEnd < length && (Character.isLetterOrDigit (html.charAt (nameEnd)) || html.charAt (nameEnd) == ':'))
+				nameEnd++;
+			if (nameEnd == nameStart) {
+				text.append (c);
+				i++;
+				continue;
+			}
+			String tag = html.substring (nameStart, nameEnd).toLowerCase ();
+			int end = findTagEnd (html, nameEnd);
+			String attributes = html.substring (nameEnd, end);
+			i = end < length ? end + 1 : length;
+
+			if (text.length () > 0) {
+				new Node (current, null, null, decode (text.toString ()));
+				text.setLength (0);
+			}
+			if (closing) {
+				for (Node n = current; n != root; n = n.parent) {
+					if (n.tag.equals (tag)) {
+						current = n.parent;
+						break;
+					}
+				}
+				continue;
+			}
+			while (current != root && closes (tag, current.tag))
+				current = current.parent;
+			Node e = new Node (current, tag, getClass (attributes), null);
+			if (raw_text_elements.contains (tag)) {
+				while (i < length && !html.regionMatches (true, i, "</" + tag, 0, tag.length () + 2))
+					i++;
+				continue;
+			}
+			if (!void_elements.contains (tag) && !attributes.endsWith ("/"))
+				current = e;
+		}
+		if (text.length () > 0)
+			new Node (current, null, null, decode (text.toString ()));
+		return root;
+	}
+
+	static int findTagEnd (String html, int from)
+	{
+		char quote = 0;
+		for (int i = from; i < html.length (); i++) {
+			char c = html.charAt (i);
+			if (quote != 0) {
+				if (c == quote)
+					quote = 0;
+			} else if (c == '"' || c == '\'')
+				quote = c;
+			else if (c == '>')
+				return i;
+		}
+		return html.length ();
+	}
+
+	static String getClass (String attributes)
+	{
+		int i = 0, length = attributes.length ();
+		while (i < length) {
+			while (i < length && !Character.isLetter (attributes.charAt (i)))
+				i++;
+			int nameStart = i;
+			while (i < length && attributes.charAt (i) != '=' && attributes.charAt (i) != '>' && !Character.isWhitespace (attributes.charAt (i)))
+				i++;
+			String name = attributes.substring (nameStart, i).toLowerCase ();
+			while (i < length && Character.isWhitespace (attributes.charAt (i)))
+				i++;
+			if (i >= length || attributes.charAt (i) != '=')
+				continue;
+			i++;
+			while (i < length && Character.isWhitespace (attributes.charAt (i)))
+				i++;
+			String value;
+			if (i < length && (attributes.charAt (i) == '"' || attributes.charAt (i) == '\'')) {
+				int end = attributes.indexOf (attributes.charAt (i), i + 1);
+				if (end < 0)
+					end = length;
+				value = attributes.substring (i + 1, end);
+				i = end + 1;
+			} else {
+				int start = i;
+				while (i < length && !Character.isWhitespace (attributes.charAt (i)))
+					i++;
+				value = attributes.substring (start, i);
+			}
+			if (name.equals ("class"))
+				return decode (value);
+		}
+		return null;
+	}
+
+	static final Map<String,Character> entities = new HashMap<String,Character> ();
+	static {
+		entities.put ("lt", '<');
+		entities.put ("gt", '>');
+		entities.put ("amp", '&');
+		entities.put ("quot", '"');
+		entities.put ("apos", '\'');
+		entities.put ("nbsp", '\u00a0');
+	}
+
+	static String decode (String s)
+	{
+		if (s.indexOf ('&') < 0)
+			return s;
+		StringBuilder sb = new StringBuilder ();
+		for (int i = 0; i < s.length (); i++) {
+			char c = s.charAt (i);
+			int semi = c == '&' ? s.indexOf (';', i) : -1;
+			if (semi < 0 || semi - i > 10) {
+				sb.append (c);
+				continue;
+			}
+			String name = s.substring (i + 1, semi);
+			try {
+				if (name.startsWith ("#x") || name.startsWith ("#X"))
+					sb.appendCodePoint (Integer.parseInt (name.substring (2), 16));
+				else if (name.startsWith ("#"))
+					sb.appendCodePoint (Integer.parseInt (name.substring (1)));
+				else if (entities.containsKey (name))
+					sb.append (entities.get (name));
+				else {
+					sb.append (c);
+					continue;
+				}
+				i = semi;
+			} catch (IllegalArgumentException e) {
+				sb.append (c);
+			}
+		}
+		return sb.toString ();
+	}
+
+	static void findCautions (Node node, List<Node> cautions)
+	{
+		for (Node n : node.children) {
+			if (n.tag == null)
+				continue;
+			if (n.is ("p", "caution"))
+				cautions.add (n);
+			findCautions (n, cautions);
+		}
+	}
+
+	// Adds the selected nodes in document order, once each, as XPath node-sets are.
+	static void collect (Node node, Set<Node> selected, List<Node> result)
+	{
+		if (selected.contains (node))
+			result.add (node);
+		for (Node n : node.children)
+			collect (n, selected, result);
+	}
+
+	// Returns the deprecated members of a page, or null if it has none.
+	static Members scrape (String html)
+	{
+		Node root = parse (html);
+		List<Node> cautions = new ArrayList<Node> ();
+		findCautions (root, cautions);
+		if (cautions.isEmpty ())
+			return null;
+
+		Set<Node> fieldTitles = new HashSet<Node> ();
+		Set<Node> methodTitles = new HashSet<Node> ();
+		for (Node p : cautions) {
+			Node grandparent = p.parent != null ? p.parent.parent : null;
+			if (grandparent != null)
+				for (Node n : grandparent.children)
+					if (n.is ("h4", "jd-details-title"))
+						fieldTitles.add (n);
+			for (Node div = p.parent; div != null; div = div.parent) {
+				if (!"div".equals (div.tag) || div.getChild ("h4", "jd-details-title") == null)
+					continue;
+				boolean sympad = false;
+				for (Node h4 : div.children)
+					if (h4.is ("h4", null) && h4.getChild ("span", "sympad") != null)
+						sympad = true;
+				if (!sympad)
+					continue;
+				for (Node h4 : div.children)
+					if (h4.is ("h4", null))
+						methodTitles.add (h4);
+			}
+		}
+
+		List<Node> ordered = new ArrayList<Node> ();
+		collect (root, fieldTitles, ordered);
+		StringBuilder fields = new StringBuilder ();
+		for (Node h4 : ordered)
+			h4.appendTexts (fields, false);
+		ordered.clear ();
+		collect (root, methodTitles, ordered);
+		StringBuilder methods = new StringBuilder ();
+		for (Node h4 : ordered)
+			h4.appendTexts (methods, true);
+
+		Members result = new Members ();
+		result.fields = getFields (fields.toString ());
+		result.methods = getMethods (methods.toString ());
+		return result.fields.isEmpty () && result.methods.isEmpty () ? null : result;
+	}
+
+	// String.Split (char [], RemoveEmptyEntries) of .NET.
+	static List<String> split (String s, char separator)
+	{
+		List<String> items = new ArrayList<String> ();
+		int start = 0;
+		for (int i = 0; i <= s.length (); i++) {
+			if (i == s.length () || s.charAt (i) == separator) {
+				if (i > start)
+					items.add (s.substring (start, i));
+				start = i + 1;
+			}
+		}
+		return items;
+	}
+
+	// String.Trim () of .NET, which trims Unicode white space.
+	static String trim (String s)
+	{
+		int start = 0, end = s.length ();
+		while (start < end && isWhiteSpace (s.charAt (start)))
+			start++;
+		while (end > start && isWhiteSpace (s.charAt (end - 1)))
+			end--;
+		return s.substring (start, end);
+	}
+
+	static boolean isWhiteSpace (char c)
+	{
+		return Character.isWhitespace (c) || Character.isSpaceChar (c) || c == '\u0085';
+	}
+
+	// No-break spaces (&nbsp; between parameter types and names) end up as
+	// spaces too: the annotations list parameter types only.
+	static String normalize (String text)
+	{
+		return trim (text.replace ('\n', ' ').replace ('\u00a0', ' '));
+	}
+
+	static List<String> getFields (String text)
+	{
+		return split (normalize (text), ' ');
+	}
+
+	static List<String> getMethods (String text)
+	{
+		List<String> methods = new ArrayList<String> ();
+		List<String> items = split (normalize (text), ' ');
+		if (items.isEmpty ())
+			return methods;
+		// once whitespace is removed, the signatures are split at the ')' that ends each.
+		StringBuilder all = new StringBuilder ();
+		for (String item : items)
+			all.append (all.length () > 0 ? " " : "").append (item);
+		for (String item : split (all.toString (), ')')) {
+			List<String> fnp = split (trim (item), '(');
+			if (fnp.isEmpty ())
+				continue;
+			String [] signame = trim (fnp.get (0)).split (" ", -1);
+			List<String> prms = fnp.size () > 1 ? split (fnp.get (1), ',') : new ArrayList<String> ();
+			StringBuilder sb = new StringBuilder (signame [signame.length - 1]).append ('(');
+			for (int i = 0; i < prms.size (); i++)
+				sb.append (i > 0 ? "," : "").append (trim (prms.get (i)).split (" ", -1) [0]);
+			methods.add (sb.append (')').toString ());
+		}
+		return methods;
+	}
+
+	static String read (File file) throws IOException
+	{
+		StringBuilder sb = new StringBuilder ();
+		BufferedReader reader = new BufferedReader (new InputStreamReader (new FileInputStream (file), "UTF-8"));
+		try {
+			char [] buffer = new char [8192];
+			for (int n = reader.read (buffer); n > 0; n = reader.read (buffer))
+				sb.append (buffer, 0, n);
+		} finally {
+			reader.close ();
+		}
+		return sb.toString ();
+	}
+
+	// Scrapes the pages of the doc tree at dir with the given number of threads;
+	// returns the members of each class with deprecated ones, by page name (without .html).
+	static Map<String,Members> scrapeTree (File dir, int jobs) throws Exception
+	{
+		final File root = dir.getAbsoluteFile ();
+		List<String> paths = new ArrayList<String> ();
+		DocIndex.listPages (root, "", paths);
+		Collections.sort (paths);
+
+		ExecutorService pool = Executors.newFixedThreadPool (jobs);
+		try {
+			List<Future<Members>> results = new ArrayList<Future<Members>> ();
+			for (final String path : paths)
+				results.add (pool.submit (new Callable<Members> () {
+					public Members call () throws IOException
+					{
+						return scrape (read (new File (root.getPath () + "/" + path)));
+					}
+				}));
+			Map<String,Members> members = new TreeMap<String,Members> ();
+			for (int i = 0; i < paths.size (); i++) {
+				Members result = results.get (i).get ();
+				if (result != null)
+					members.put (paths.get (i).substring (0, paths.get (i).length () - 5), result);
+			}
+			return members;
+		} finally {
+			pool.shutdown ();
+		}
+	}
+
+	// The deprecated members of a doc tree, for a run given the tree as --annotations.
+	public static DeprecatedMembers extract (File dir) throws Exception
+	{
+		Map<String,Set<String>> fields = new HashMap<String,Set<String>> ();
+		Map<String,Set<String>> methods = new HashMap<String,Set<String>> ();
+		for (Map.Entry<String,Members> e : scrapeTree (dir, Runtime.getRuntime ().availableProcessors ()).entrySet ()) {
+			fields.put (e.getKey (), new HashSet<String> (e.getValue ().fields));
+			methods.put (e.getKey (), new HashSet<String> (e.getValue ().methods));
+		}
+		return new DeprecatedMembers (fields, methods);
+	}
+
+	static String escape (String s)
+	{
+		return s.replace ("&", "&amp;").replace ("<", "&lt;").replace ("'", "&apos;");
+	}
+
+	static void write (File file, Map<String,Members> members) throws IOException
+	{
+		Writer w = new OutputStreamWriter (new FileOutputStream (file), "UTF-8");
+		try {
+			w.write ("<deprecated>\n");
+			for (Map.Entry<String,Members> e : members.entrySet ()) {
+				w.write ("<file name='" + escape (e.getKey ()) + "'>\n");
+				for (String field : e.getValue ().fields)
+					w.write ("  <field>" + escape (field) + "</field>\n");
+				for (String method : e.getValue ().methods)
+					w.write ("  <method>" + escape (method) + "</method>\n");
+				w.write ("</file>\n");
+			}
+			w.write ("</deprecated>\n");
+		} finally {
+			w.close ();
+		}
+	}
+
+	// jar2xml --deprecated=<droiddoc> --out=<xmlfile> [--jobs=<n>]
+	public static int run (String [] args)
+	{
+		String docs = null;
+		String out = null;
+		int jobs = Runtime.getRuntime ().availableProcessors ();
+		String usage = "Usage: jar2xml --deprecated=<droiddoc> --out=<xmlfile> [--jobs=<n>]";
+		for (String arg : args) {
+			if (arg.startsWith ("--deprecated="))
+				docs = arg.substring (13);
+			else if (arg.startsWith ("--out="))
+				out = arg.substring (6);
+			else if (arg.startsWith ("--jobs=")) {
+				try {
+					jobs = Integer.parseInt (arg.substring (7));
+				} catch (NumberFormatException e) {
+					jobs = 0;
+				}
+			} else
+				jobs = 0;
+			if (jobs < 1) {
+				System.err.println (usage);
+				return 1;
+			}
+		}
+		if (docs == null || out == null) {
+			System.err.println (usage);
+			return 1;
+		}
+
+		try {
+			write (new File (out), scrapeTree (new File (docs), jobs));
+		} catch (Exception e) {
+			e.printStackTrace ();
+			System.err.println ("error J2X0009: Couldn't scrape deprecated members from " + docs + " : " + e);
+			return 1;
+		}
+		return 0;
+	}
+}
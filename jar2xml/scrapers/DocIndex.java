@@ -0,0 +1,374 @@
+package jar2xml.scrapers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// A doc tree compiled by "jar2xml --index": the parameter lists of the method
+// anchors of every page, as AndroidDocScraper.indexPage () finds them, in a
+// file that IndexedDocScraper maps instead of reading any HTML.
+//
+// Layout, big endian:
+//	header   magic, version, the doc flavour, the doc root and the flavour's
+//	         patterns (as string offsets), page count
+//	pages    sorted by path: path, modification time, length, entries offset
+//	entries  per page: count, then key and value offsets, sorted by key
+//	strings  byte length (-1 for null), then UTF-8 bytes; each stored once
+//
+// Paths and keys are sorted by their UTF-8 bytes, so that lookups compare
+// them in place without decoding.
+public class DocIndex {
+
+	static final int magic = 0x4a325849; // J2XI
+	static final int version = 1;
+	static final int header_size = 9 * 4;
+	static final int page_size = 4 + 8 + 8 + 4;
+	static final Charset utf8 = Charset.forName ("UTF-8");
+
+	final ByteBuffer buffer;
+	final int pageCount;
+	final String flavour;
+	final File root;
+	final String patternHead;
+	final String resetPatternHead;
+	final String parameterPairSplitter;
+	final boolean continuousParamLines;
+
+	DocIndex (File file, ByteBuffer buffer) throws IOException
+	{
+		this.buffer = buffer;
+		if (buffer.capacity () < header_size || buffer.getInt (0) != magic || buffer.getInt (4) != version)
+			throw new IOException (file + " is not a jar2xml doc index (of version " + version + ")");
+		flavour = getString (buffer.getInt (8));
+		root = new File (getString (buffer.getInt (12)));
+		patternHead = getString (buffer.getInt (16));
+		resetPatternHead = getString (buffer.getInt (20));
+		parameterPairSplitter = getString (buffer.getInt (24));
+		continuousParamLines = buffer.getInt (28) != 0;
+		pageCount = buffer.getInt (32);
+	}
+
+	public static DocIndex open (File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile (file, "r");
+		try {
+			FileChannel channel = raf.getChannel ();
+			return new DocIndex (file, channel.map (FileChannel.MapMode.READ_ONLY, 0, channel.size ()));
+		} finally {
+			// the mapping stays valid.
+			raf.close ();
+		}
+	}
+
+	public String getFlavour ()
+	{
+		return flavour;
+	}
+
+	public File getRoot ()
+	{
+		return root;
+	}
+
+	static final Comparator<String> utf8_order = new Comparator<String> () {
+		public int compare (String s1, String s2)
+		{
+			byte [] b1 = s1.getBytes (utf8), b2 = s2.getBytes (utf8);
+			for (int i = 0; i < b1.length && i < b2.length; i++)
+				if (b1 [i] != b2 [i])
+					return (b1 [i] & 0xff) - (b2 [i] & 0xff);
+			return b1.length - b2.length;
+		}
+	};
+
+	// Compares the string at offset with the given UTF-8 bytes.
+	int compare (int offset, byte [] key)
+	{
+		int length = buffer.getInt (offset);
+		for (int i = 0; i < length && i < key.length; i++) {
+			int b = buffer.get (offset + 4 + i) & 0xff;
+			if (b != (key [i] & 0xff))
+				return b - (key [i] & 0xff);
+		}
+		return length - key.length;
+	}
+
+	String getString (int offset)
+	{
+		int length = buffer.getInt (offset);
+		if (length < 0)
+			return null;
+		byte [] bytes = new byte [length];
+		for (int i = 0; i < length; i++)
+			bytes [i] = buffer.get (offset + 4 + i);
+		return new String (bytes, utf8);
+	}
+
+	// Returns the indexed page of the given path, or null if the tree had no such page.
+	public Page getPage (String path)
+	{
+		byte [] key = path.getBytes (utf8);
+		int low = 0, high = pageCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int record = header_size + mid * page_size;
+			int cmp = compare (buffer.getInt (record), key);
+			if (cmp == 0)
+				return new Page (buffer.getLong (record + 4), buffer.getLong (record + 12), buffer.getInt (record + 20));
+			if (cmp < 0)
+				low = mid + 1;
+			else
+				high = mid - 1;
+		}
+		return null;
+	}
+
+	// The parameter lists of a page, by "name(types)"; looked up in place.
+	public class Page extends AbstractMap<String,String> {
+		final long modified;
+		final long length;
+		final int entries;
+
+		Page (long modified, long length, int entries)
+		{
+			this.modified = modified;
+			this.length = length;
+			this.entries = entries;
+		}
+
+		public String get (Object name)
+		{
+			byte [] key = ((String) name).getBytes (utf8);
+			int low = 0, high = buffer.getInt (entries) - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int record = entries + 4 + mid * 8;
+				int cmp = compare (buffer.getInt (record), key);
+				if (cmp == 0)
+					return getString (buffer.getInt (record + 4));
+				if (cmp < 0)
+					low = mid + 1;
+				else
+					high = mid - 1;
+			}
+			return null;
+		}
+
+		public Set<Map.Entry<String,String>> entrySet ()
+		{
+			Map<String,String> all = new LinkedHashMap<String,String> ();
+			int count = buffer.getInt (entries);
+			for (int i = 0; i < count; i++) {
+				int record = entries + 4 + i * 8;
+				all.put (getString (buffer.getInt (record)), getString (buffer.getInt (record + 4)));
+			}
+			return all.entrySet ();
+		}
+	}
+
+	static class Writer {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+		DataOutputStream body = new DataOutputStream (bytes);
+		int base;
+		Map<String,Integer> strings = new HashMap<String,Integer> ();
+
+		Writer (int base)
+		{
+			this.base = base;
+		}
+
+		int offset ()
+		{
+			return base + body.size ();
+		}
+
+		int putString (String s) throws IOException
+		{
+			Integer offset = strings.get (s);
+			if (offset != null)
+				return offset;
+			offset = offset ();
+			if (s == null)
+				body.writeInt (-1);
+			else {
+				byte [] b = s.getBytes (utf8);
+				body.writeInt (b.length);
+				body.write (b);
+			}
+			strings.put (s, offset);
+			return offset;
+		}
+	}
+
+	static class IndexedPage {
+		String path;
+		long modified;
+		long length;
+		Map<String,String> entries;
+	}
+
+	// Indexes the pages of the doc tree at root with the given number of threads, and writes the index to file.
+	public static void build (String flavour, File root, File file, int jobs) throws Exception
+	{
+		root = root.getAbsoluteFile ();
+		final AndroidDocScraper scraper = AndroidDocScraper.create (flavour, root);
+		List<String> paths = new ArrayList<String> ();
+		listPages (root, "", paths);
+		if (paths.isEmpty ())
+			throw new IOException ("no .html pages under " + root);
+		Collections.sort (paths, utf8_order);
+
+		final File dir = root;
+		ExecutorService pool = Executors.newFixedThreadPool (jobs);
+		List<Future<IndexedPage>> results = new ArrayList<Future<IndexedPage>> ();
+		try {
+			for (final String path : paths)
+				results.add (pool.submit (new Callable<IndexedPage> () {
+					public IndexedPage call () throws IOException
+					{
+						File page = new File (dir.getPath () + "/" + path);
+						IndexedPage result = new IndexedPage ();
+						result.path = path;
+						// taken before reading: a page changed meanwhile is read again at lookup.
+						result.modified = page.lastModified ();
+						result.length = page.length ();
+						result.entries = new TreeMap<String,String> (utf8_order);
+						result.entries.putAll (scraper.indexPage (page, path));
+						return result;
+					}
+				}));
+			List<IndexedPage> pages = new ArrayList<IndexedPage> ();
+			for (Future<IndexedPage> result : results)
+				pages.add (result.get ());
+			write (file, flavour, root, scraper, pages);
+		} finally {
+			pool.shutdown ();
+		}
+	}
+
+	static void listPages (File dir, String prefix, List<String> paths)
+	{
+		File [] files = dir.listFiles ();
+		if (files == null)
+			return;
+		for (File f : files) {
+			if (f.isDirectory ())
+				listPages (f, prefix + f.getName () + "/", paths);
+			else if (f.getName ().endsWith (".html"))
+				paths.add (prefix + f.getName ());
+		}
+	}
+
+	static void write (File file, String flavour, File root, AndroidDocScraper scraper, List<IndexedPage> pages) throws IOException
+	{
+		Writer w = new Writer (header_size + pages.size () * page_size);
+		int [] header = new int [] {
+			magic, version, w.putString (flavour), w.putString (root.getPath ()),
+			w.putString (scraper.pattern_head), w.putString (scraper.reset_pattern_head), w.putString (scraper.parameter_pair_splitter),
+			scraper.continuous_param_lines ? 1 : 0, pages.size ()};
+
+		ByteArrayOutputStream table = new ByteArrayOutputStream ();
+		DataOutputStream records = new DataOutputStream (table);
+		for (IndexedPage page : pages) {
+			int path = w.putString (page.path);
+			int [] entries = new int [page.entries.size () * 2];
+			int i = 0;
+			for (Map.Entry<String,String> e : page.entries.entrySet ()) {
+				entries [i++] = w.putString (e.getKey ());
+				entries [i++] = w.putString (e.getValue ());
+			}
+			records.writeInt (path);
+			records.writeLong (page.modified);
+			records.writeLong (page.length);
+			records.writeInt (w.offset ());
+			w.body.writeInt (page.entries.size ());
+			for (int offset : entries)
+				w.body.writeInt (offset);
+		}
+
+		File tmp = new File (file.getPath () + ".tmp");
+		DataOutputStream out = new DataOutputStream (new FileOutputStream (tmp));
+		try {
+			for (int value : header)
+				out.writeInt (value);
+			table.writeTo (out);
+			w.bytes.writeTo (out);
+		} finally {
+			out.close ();
+		}
+		if (!tmp.renameTo (file)) {
+			file.delete ();
+			if (!tmp.renameTo (file))
+				throw new IOException ("Couldn't rename " + tmp + " to " + file);
+		}
+	}
+
+	// jar2xml --index=<file> --droiddocpath=<dir>|--javadocpath=<dir>|--java7htmlpath=<dir> [--jobs=<n>]
+	// Java7 HTML docs take their own option, --java7docpath being the sources of a normal run.
+	public static int run (String [] args)
+	{
+		String index = null;
+		String flavour = null;
+		String docs = null;
+		int jobs = Runtime.getRuntime ().availableProcessors ();
+		String usage = "Usage: jar2xml --index=<file> --droiddocpath=<droiddoc>|--javadocpath=<javadoc>|--java7htmlpath=<java7doc> [--jobs=<n>]";
+		for (String arg : args) {
+			if (arg.startsWith ("--index="))
+				index = arg.substring (8);
+			else if (arg.startsWith ("--droiddocpath=") && docs == null) {
+				flavour = "droiddoc";
+				docs = arg.substring (15);
+			} else if (arg.startsWith ("--javadocpath=") && docs == null) {
+				flavour = "javadoc";
+				docs = arg.substring (14);
+			} else if (arg.startsWith ("--java7htmlpath=") && docs == null) {
+				flavour = "java7doc";
+				docs = arg.substring (16);
+			} else if (arg.startsWith ("--jobs=")) {
+				try {
+					jobs = Integer.parseInt (arg.substring (7));
+				} catch (NumberFormatException e) {
+					jobs = 0;
+				}
+			} else
+				jobs = 0;
+			if (jobs < 1) {
+				System.err.println (usage);
+				return 1;
+			}
+		}
+		if (index == null || docs == null) {
+			System.err.println (usage);
+			return 1;
+		}
+
+		try {
+			build (flavour, new File (docs), new File (index), jobs);
+		} catch (Exception e) {
+			e.printStackTrace ();
+			System.err.println ("error J2X0008: Couldn't index the docs at " + docs + " : " + e);
+			return 1;
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,57 @@
+package jar2xml.scrapers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Answers from a DocIndex (see "jar2xml --index") instead of the doc pages.
+//
+// While the indexed doc tree is around, each page is checked against it once
+// (modification time and size); pages that changed or appeared since the
+// index was built are then read from the tree, as the scraper of its flavour
+// would.
+public class IndexedDocScraper extends AndroidDocScraper {
+
+	DocIndex index;
+	AndroidDocScraper tree;
+	Map<String,Boolean> current = new ConcurrentHashMap<String,Boolean> ();
+	volatile boolean warned;
+
+	public IndexedDocScraper (File file) throws IOException
+	{
+		this (DocIndex.open (file));
+	}
+
+	IndexedDocScraper (DocIndex index) throws IOException
+	{
+		super (index.patternHead, index.resetPatternHead, index.parameterPairSplitter, index.continuousParamLines);
+		this.index = index;
+		root = index.root;
+		if (root.isDirectory ())
+			tree = AndroidDocScraper.create (index.flavour, root);
+	}
+
+	Map<String,String> getPage (String path) throws IOException
+	{
+		DocIndex.Page page = index.getPage (path);
+		if (tree != null && !isCurrent (path, page))
+			return tree.getPage (path);
+		return page;
+	}
+
+	boolean isCurrent (String path, DocIndex.Page page)
+	{
+		Boolean result = current.get (path);
+		if (result == null) {
+			File file = new File (root.getPath () + "/" + path);
+			result = page == null ? !file.isFile () : file.lastModified () == page.modified && file.length () == page.length;
+			current.put (path, result);
+			if (!result && !warned) {
+				warned = true;
+				System.err.println ("warning J2X8002: " + root + " changed since it was indexed; reading the changed pages from it.");
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,128 @@
+package jar2xml.scrapers.source;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import japa.parser.JavaParser;
+import japa.parser.ast.CompilationUnit;
+import japa.parser.ast.body.BodyDeclaration;
+import japa.parser.ast.body.TypeDeclaration;
+
+// The members of every type declared in the sources of SourceRoots, by binary name
+// (java/util/Map$Entry), including the nested types at any depth and the secondary top-level
+// types of a file, which a lookup by file name can't find.
+//
+// The files are parsed in parallel, without their comments, and only the parameter names are
+// kept: nothing of the syntax trees is retained.
+class SourceIndex {
+  private final Map<String, IndexedType> types = new HashMap<>();
+  final int files;
+  final int failed;
+  final long millis;
+
+  private SourceIndex(int files, int failed, long millis) {
+    this.files = files;
+    this.failed = failed;
+    this.millis = millis;
+  }
+
+  // The indexed type, or null if no source declares it.
+  IndexedType get(String binaryName) {
+    return types.get(binaryName);
+  }
+
+  int size() {
+    return types.size();
+  }
+
+  static SourceIndex build(final SourceRoots roots, int jobs) throws IOException, InterruptedException {
+    long started = System.nanoTime();
+    final List<String> paths = roots.list();
+
+    ExecutorService pool = Executors.newFixedThreadPool(jobs);
+    List<Future<List<IndexedType>>> results = new ArrayList<>(paths.size());
+    try {
+      for (final String path : paths) {
+        results.add(pool.submit(new Callable<List<IndexedType>>() {
+          @Override public List<IndexedType> call() throws Exception {
+            // Taken before reading: a file changed meanwhile is parsed again at lookup.
+            long modified = roots.lastModified(path);
+            CompilationUnit unit = JavaParser.parse(new ByteArrayInputStream(roots.read(path)), null, false);
+            List<IndexedType> declared = new ArrayList<>();
+            if (unit.getTypes() != null) {
+              String prefix = unit.getPackage() != null ? unit.getPackage().getName().toString().replace('.', '/') + "/" : "";
+              for (TypeDeclaration type : unit.getTypes()) {
+                add(declared, prefix + type.getName(), type, path, modified);
+              }
+            }
+            return declared;
+          }
+        }));
+      }
+
+      // Types are taken from the file their name maps to first, and then from the other files in
+      // path order, so that duplicates resolve the same on every run.
+      List<List<IndexedType>> parsed = new ArrayList<>(paths.size());
+      int failed = 0;
+      for (int i = 0; i < paths.size(); i++) {
+        try {
+          parsed.add(results.get(i).get());
+        } catch (ExecutionException e) {
+          System.err.println(String.format("Failed to parse file {%s} for the source index: %s", roots.describe(paths.get(i)), e.getCause()));
+          parsed.add(new ArrayList<IndexedType>());
+          failed++;
+        }
+      }
+
+      SourceIndex index = new SourceIndex(paths.size(), failed, (System.nanoTime() - started) / 1000000);
+      for (List<IndexedType> declared : parsed) {
+        for (IndexedType type : declared) {
+          if (type.path.equals(type.binaryName.split("\\$")[0] + ".java")) index.types.put(type.binaryName, type);
+        }
+      }
+      for (List<IndexedType> declared : parsed) {
+        for (IndexedType type : declared) {
+          if (!index.types.containsKey(type.binaryName)) index.types.put(type.binaryName, type);
+        }
+      }
+      return index;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static void add(List<IndexedType> declared, String binaryName, TypeDeclaration type, String path, long modified) {
+    declared.add(new IndexedType(binaryName, path, modified, new SourcesScraper.TypeIndex(type)));
+    if (type.getMembers() == null) return;
+
+    for (BodyDeclaration member : type.getMembers()) {
+      if (member instanceof TypeDeclaration) {
+        TypeDeclaration nested = (TypeDeclaration) member;
+        add(declared, binaryName + "$" + nested.getName(), nested, path, modified);
+      }
+    }
+  }
+
+  static class IndexedType {
+    final String binaryName;
+    final String path;
+    final long modified;
+    final SourcesScraper.TypeIndex members;
+
+    IndexedType(String binaryName, String path, long modified, SourcesScraper.TypeIndex members) {
+      this.binaryName = binaryName;
+      this.path = path;
+      this.modified = modified;
+      this.members = members;
+    }
+  }
+}
@@ -0,0 +1,195 @@
+package jar2xml.scrapers.source;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+// The directories and source archives (-sources.jar) that SourcesScraper reads from, in lookup order.
+//
+// Archives are read in place. Their central directories are read once, up front, to know which
+// archive has which .java file, and entries are then inflated on demand. At most
+// MAX_OPEN_ARCHIVES are kept open at a time, the least recently used being closed first.
+class SourceRoots {
+  static final int MAX_OPEN_ARCHIVES = 16;
+
+  private final List<File> roots;
+  private final Archive[] archives;
+  // The first archive that has each .java file.
+  private final Map<String, Integer> entries = new HashMap<>();
+  private final LinkedHashMap<Archive, Archive> open = new LinkedHashMap<>(16, 0.75f, true);
+
+  SourceRoots(List<File> roots) throws IOException {
+    if (roots.isEmpty())
+      throw new IllegalArgumentException("no source directory or archive");
+    this.roots = new ArrayList<>(roots);
+    archives = new Archive[roots.size()];
+    for (int i = 0; i < roots.size(); i++) {
+      File root = roots.get(i);
+      if (!root.exists())
+        throw new FileNotFoundException(root.getAbsolutePath());
+      if (root.isDirectory())
+        continue;
+
+      archives[i] = new Archive(root);
+      ZipFile zip;
+      try {
+        zip = new ZipFile(root);
+      } catch (ZipException e) {
+        throw new IllegalArgumentException(root.getAbsolutePath() + " is neither a directory nor a source archive.", e);
+      }
+      try {
+        Enumeration<? extends ZipEntry> e = zip.entries();
+        while (e.hasMoreElements()) {
+          ZipEntry entry = e.nextElement();
+          if (!entry.isDirectory() && entry.getName().endsWith(".java") && !entries.containsKey(entry.getName())) {
+            entries.put(entry.getName(), i);
+          }
+        }
+      } finally {
+        zip.close();
+      }
+    }
+  }
+
+  // The root that has the file, or -1.
+  private int find(String path) {
+    Integer archive = entries.get(path);
+    int end = archive != null ? archive : roots.size();
+    for (int i = 0; i < end; i++) {
+      if (archives[i] == null && new File(roots.get(i), path).isFile()) return i;
+    }
+    return archive != null ? archive : -1;
+  }
+
+  // The paths of all the .java files of the roots, sorted.
+  List<String> list() {
+    Set<String> paths = new TreeSet<>(entries.keySet());
+    for (int i = 0; i < roots.size(); i++) {
+      if (archives[i] == null) listFiles(roots.get(i), "", paths);
+    }
+    return new ArrayList<>(paths);
+  }
+
+  private static void listFiles(File dir, String prefix, Set<String> paths) {
+    File[] files = dir.listFiles();
+    if (files == null) return;
+    for (File f : files) {
+      if (f.isDirectory()) {
+        listFiles(f, prefix + f.getName() + "/", paths);
+      } else if (f.getName().endsWith(".java")) {
+        paths.add(prefix + f.getName());
+      }
+    }
+  }
+
+  // The path of the file for messages: in its directory, or as archive!/entry.
+  String describe(String path) {
+    int i = find(path);
+    File root = roots.get(i < 0 ? 0 : i);
+    return root.getPath() + (archives[i < 0 ? 0 : i] != null ? "!/" : "/") + path;
+  }
+
+  // 0 if there is no such file.
+  long lastModified(String path) {
+    int i = find(path);
+    if (i < 0) return 0;
+    return archives[i] != null ? roots.get(i).lastModified() : new File(roots.get(i), path).lastModified();
+  }
+
+  // The contents of the file.
+  byte[] read(String path) throws IOException {
+    int i = find(path);
+    if (i < 0) throw new FileNotFoundException(describe(path));
+    if (archives[i] != null) return archives[i].read(path);
+
+    InputStream stream = new FileInputStream(new File(roots.get(i), path));
+    try {
+      return readAll(stream);
+    } finally {
+      stream.close();
+    }
+  }
+
+  void close() {
+    synchronized (open) {
+      for (Archive archive : open.keySet()) {
+        archive.close();
+      }
+      open.clear();
+    }
+  }
+
+  static byte[] readAll(InputStream stream) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    for (int n; (n = stream.read(buffer)) > 0; ) {
+      bytes.write(buffer, 0, n);
+    }
+    return bytes.toByteArray();
+  }
+
+  // Marks the archive as used, closing the least recently used ones beyond the limit.
+  private void touch(Archive archive) {
+    List<Archive> evicted = new ArrayList<>();
+    synchronized (open) {
+      open.put(archive, archive);
+      Iterator<Archive> eldest = open.keySet().iterator();
+      while (open.size() > MAX_OPEN_ARCHIVES) {
+        evicted.add(eldest.next());
+        eldest.remove();
+      }
+    }
+    // Closing waits for the reads in progress, so it is done outside the lock.
+    for (Archive a : evicted) {
+      a.close();
+    }
+  }
+
+  private class Archive {
+    final File file;
+    ZipFile zip;
+
+    Archive(File file) {
+      this.file = file;
+    }
+
+    byte[] read(String path) throws IOException {
+      touch(this);
+      synchronized (this) {
+        if (zip == null) zip = new ZipFile(file);
+        ZipEntry entry = zip.getEntry(path);
+        if (entry == null) throw new FileNotFoundException(file.getPath() + "!/" + path);
+        InputStream stream = zip.getInputStream(entry);
+        try {
+          return readAll(stream);
+        } finally {
+          stream.close();
+        }
+      }
+    }
+
+    synchronized void close() {
+      if (zip == null) return;
+      try {
+        zip.close();
+      } catch (IOException ignore) {
+      }
+      zip = null;
+    }
+  }
+}
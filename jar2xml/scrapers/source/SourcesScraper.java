@@ -1,13 +1,18 @@
 package jar2xml.scrapers.source;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import japa.parser.JavaParser;
 import japa.parser.ParseException;
@@ -18,26 +23,125 @@ import japa.parser.ast.body.ConstructorDeclaration;
 import japa.parser.ast.body.MethodDeclaration;
 import japa.parser.ast.body.Parameter;
 import japa.parser.ast.body.TypeDeclaration;
+import jar2xml.Events;
+import jar2xml.ClassSkeleton;
+import jar2xml.IDocPrefetcher;
 import jar2xml.IDocScraper;
+import jar2xml.IDocVersion;
 import jar2xml.utils.Utils;
-import org.objectweb.asm.tree.ClassNode;
 
-public class SourcesScraper implements IDocScraper {
+public class SourcesScraper implements IDocScraper, IDocPrefetcher, IDocVersion {
+  public static final long DEFAULT_CACHE_SIZE = 32 * 1024 * 1024;
+  private static final long ENTRY_COST = 1024;
+
   private final String[] EMPTY_RESPONSE = new String[0];
 
-  private File sourcesDir;
+  private final SourceRoots roots;
+  // Set by buildIndex(), when the whole tree is indexed up front.
+  private volatile SourceIndex index;
+
+  // Parsed sources, most recently used last. Bounded by the total size of the source files, plus
+  // ENTRY_COST per entry so that the failed ones (missing files, parse errors) are evicted too.
+  private final LinkedHashMap<String, ParsedSource> cache = new LinkedHashMap<>(16, 0.75f, true);
+  private final long cacheSize;
+  private long cachedBytes;
+
+  public SourcesScraper(File sourcesDir) throws IOException {
+    this(sourcesDir, DEFAULT_CACHE_SIZE);
+  }
+
+  public SourcesScraper(File sourcesDir, long cacheSize) throws IOException {
+    this(Collections.singletonList(sourcesDir), cacheSize);
+  }
+
+  // Each root is a source directory or a source archive (-sources.jar); a file is looked up in them in order.
+  public SourcesScraper(List<File> roots, long cacheSize) throws IOException {
+    this.roots = new SourceRoots(roots);
+    this.cacheSize = cacheSize;
+  }
+
+  // Parses all the sources of the roots with the given number of threads, so that the lookups of
+  // the types they declare, nested ones at any depth included, need no file access. Types that
+  // the index misses, or whose file changed since, are still looked up in their file.
+  public void buildIndex(int jobs) throws IOException, InterruptedException {
+    SourceIndex built = SourceIndex.build(roots, jobs);
+    System.err.println(String.format("Indexed %d types from %d source files in %d ms with %d threads (%d files failed to parse).",
+        built.size(), built.files, built.millis, jobs, built.failed));
+    index = built;
+  }
+
+  // Closes the source archives; they are opened again if needed.
+  public void close() {
+    roots.close();
+  }
+
+  @Override public String[] getParameterNames(ClassSkeleton asm, String name, Type[] ptypes, boolean isVarArgs) {
+    return getParameterNames(asm, name, ptypes, null);
+  }
+
+  // Parses the source file of the class, which its lookups then use.
+  @Override public IDocScraper prefetch(ClassSkeleton asm) {
+    final SourceIndex.IndexedType type = getIndexedType(asm);
+    if (type != null) {
+      return new IDocScraper() {
+        @Override public String[] getParameterNames(ClassSkeleton asm, String name, Type[] ptypes, boolean isVarArgs) {
+          return getIndexedParameterNames(type, asm, name, ptypes);
+        }
+      };
+    }
+
+    if (isInnerClassAnonymous(asm)) return this;
+
+    final ParsedSource source;
+    try {
+      source = getParsedSource(getFileNameForClass(asm));
+    } catch (Exception e) {
+      // The lookups run into the error again, and report it.
+      return this;
+    }
+
+    return new IDocScraper() {
+      @Override public String[] getParameterNames(ClassSkeleton asm, String name, Type[] ptypes, boolean isVarArgs) {
+        return SourcesScraper.this.getParameterNames(asm, name, ptypes, source);
+      }
+    };
+  }
 
-  public SourcesScraper(File sourcesDir) throws FileNotFoundException {
-    if (!sourcesDir.exists())
-      throw new FileNotFoundException(sourcesDir.getAbsolutePath());
+  // The source file the lookups of the class read: the one the index has it in, if any.
+  @Override public String getDocVersion(ClassSkeleton asm) {
+    SourceIndex.IndexedType type = getIndexedType(asm);
+    String path = type != null ? type.path : getFileNameForClass(asm);
+    return roots.describe(path) + ":" + roots.lastModified(path);
+  }
+
+  // The indexed type of the class, or null if there is no index, the index misses it or its file
+  // changed since the index was built.
+  private SourceIndex.IndexedType getIndexedType(ClassSkeleton asm) {
+    SourceIndex index = this.index;
+    if (index == null) return null;
 
-    if (!sourcesDir.isDirectory())
-      throw new IllegalArgumentException(sourcesDir.getAbsolutePath() + " is not a directory.");
+    SourceIndex.IndexedType type = index.get(asm.name);
+    if (type == null || type.modified != roots.lastModified(type.path)) return null;
+    return type;
+  }
 
-    this.sourcesDir = sourcesDir;
+  private String[] getIndexedParameterNames(SourceIndex.IndexedType type, ClassSkeleton asm, String name, Type[] ptypes) {
+    // Constructors are named after the class, with its outer classes.
+    String[] names = checkAllClassMembers(type.members, name.substring(name.lastIndexOf('.') + 1), ptypes);
+    if (names == null) {
+      System.err.println("Not found for " + asm.name + "." + name + "(" + Arrays.toString(ptypes)+ ")");
+      return EMPTY_RESPONSE;
+    }
+    return names;
   }
 
-  @Override public String[] getParameterNames(ClassNode asm, String name, Type[] ptypes, boolean isVarArgs) {
+  // Looks the method up in source, or in the source file of the class if it is null.
+  private String[] getParameterNames(ClassSkeleton asm, String name, Type[] ptypes, ParsedSource source) {
+    if (source == null) {
+      SourceIndex.IndexedType type = getIndexedType(asm);
+      if (type != null) return getIndexedParameterNames(type, asm, name, ptypes);
+    }
+
     // Check whether we can determine class
     if (isInnerClassAnonymous(asm)) return EMPTY_RESPONSE;
 
@@ -45,15 +149,15 @@ public class SourcesScraper implements IDocScraper {
     boolean isInnerClass = asm.name.contains("$");
 
     try {
-      List<Parameter> params;
+      String[] params;
 
       if (isInnerClass) {
         if (name.contains(".")) name = name.split("\\.")[1];
         String className = asm.name.split("\\$")[1];
 
-        params = getParamsForInnerClassMethodName(fileName, className, name, ptypes);
+        params = getParamsForInnerClassMethodName(fileName, source, className, name, ptypes);
       } else {
-        params = getParamsForMethodName(fileName, name, ptypes);
+        params = getParamsForMethodName(fileName, source, name, ptypes);
       }
 
       if (params == null) {
@@ -61,11 +165,11 @@ public class SourcesScraper implements IDocScraper {
         return EMPTY_RESPONSE;
       }
 
-      return getMethodParamNames(params);
+      return params;
     } catch (FileNotFoundException e) {
-      System.err.println(String.format("File {%s} for class {%s} not found.", fileName, asm.name));
+      System.err.println(String.format("File {%s} for class {%s} not found.", roots.describe(fileName), asm.name));
     } catch (ParseException e) {
-      System.err.println(String.format("Failed to parse file {%s} for class {%s}.", fileName, asm.name));
+      System.err.println(String.format("Failed to parse file {%s} for class {%s}.", roots.describe(fileName), asm.name));
     } catch (StringIndexOutOfBoundsException ignore) {
       //Got it from japa.parser internal. Need to investigate circumstances.
     }
@@ -73,7 +177,7 @@ public class SourcesScraper implements IDocScraper {
     return EMPTY_RESPONSE;
   }
 
-  private boolean isInnerClassAnonymous(ClassNode clazz) {
+  private boolean isInnerClassAnonymous(ClassSkeleton clazz) {
     if (!clazz.name.contains("$")) return false;
 
     String innerClassName = clazz.name.split("\\$")[1];
@@ -81,109 +185,189 @@ public class SourcesScraper implements IDocScraper {
     return innerClassName.matches("[0-9]+");
   }
 
-  private String getFileNameForClass(ClassNode clazz) {
-    String fileName = sourcesDir.getPath() + "/";
+  private String getFileNameForClass(ClassSkeleton clazz) {
+    String fileName = clazz.name.contains("$") ? clazz.name.split("\\$")[0] : clazz.name;
+    return fileName + ".java";
+  }
+
+  private String[] getParamsForInnerClassMethodName(String file, ParsedSource source, String clazzName, String name,
+      Type[] methodParams) throws FileNotFoundException, ParseException {
+    ParsedSource javaFile = source != null ? checkParsed(source) : getParsedSource(file);
 
-    if (clazz.name.contains("$")) {
-      fileName += clazz.name.split("\\$")[0];
-    } else {
-      fileName += clazz.name;
+    TypeIndex innerClass = javaFile.innerClasses.get(clazzName);
+    if (innerClass != null) {
+      return checkAllClassMembers(innerClass, name, methodParams);
     }
 
-    return fileName + ".java";
+    System.err.println(String.format("Method {%s(%s)} not found in {%s}", name, Utils.getMethodParamsString(methodParams), roots.describe(file)));
+
+    return null;
   }
 
-  private String[] getMethodParamNames(List<Parameter> parameters) {
-    if (parameters == null) {
-      return EMPTY_RESPONSE;
-    } else {
-      String[] results = new String[parameters.size()];
-      for (int i = 0; i < results.length; i++) {
-        results[i] = parameters.get(i).getId().getName();
-      }
+  private String[] getParamsForMethodName(String file, ParsedSource source, String name, Type[] methodParams)
+      throws FileNotFoundException, ParseException {
+    ParsedSource javaFile = source != null ? checkParsed(source) : getParsedSource(file);
+
+    return checkAllClassMembers(javaFile.type, name, methodParams);
+  }
+
+  private String[] checkAllClassMembers(TypeIndex type, String targetMethodName, Type[] targetMethodParams) {
+    Map<List<String>, String[]> overloads = type.members.get(targetMethodName);
+    if (overloads == null) {
+      return null;
+    }
+
+    List<String> convertedTypes = new ArrayList<>(targetMethodParams.length);
+    for (Type pType : targetMethodParams) {
+      convertedTypes.add(Utils.getShortTypeName(pType));
+    }
+    Collections.sort(convertedTypes);
 
-      return results;
+    if (!overloads.containsKey(convertedTypes)) {
+      return null;
     }
+
+    return overloads.get(convertedTypes);
   }
 
-  private List<Parameter> getParamsForInnerClassMethodName(String file, String clazzName, String name, Type[] methodParams)
-      throws FileNotFoundException, ParseException {
-    CompilationUnit javaFile = JavaParser.parse(new FileInputStream(file));
-    TypeDeclaration clazz = javaFile.getTypes().get(0);
+  private ParsedSource getParsedSource(String file) throws FileNotFoundException, ParseException {
+    ParsedSource source;
+    synchronized (cache) {
+      source = cache.get(file);
+    }
 
-    for (BodyDeclaration bodyDeclaration : clazz.getMembers()) {
-      if (bodyDeclaration instanceof ClassOrInterfaceDeclaration) {
-        ClassOrInterfaceDeclaration innerClass = (ClassOrInterfaceDeclaration) bodyDeclaration;
+    // A long-running process (see Daemon) may see the sources change between jobs.
+    if (source != null && source.modified != roots.lastModified(file)) {
+      source = null;
+    }
 
-        if (innerClass.getName().equals(clazzName)) {
-          return checkAllClassMembers(innerClass.getName(), innerClass.getMembers(), name, methodParams);
+    if (source == null) {
+      // Parse outside the lock; concurrent lookups into the same file may parse it twice.
+      source = parse(file);
+      Events.fileRead(source.size);
+      synchronized (cache) {
+        ParsedSource previous = cache.put(file, source);
+        cachedBytes += source.cost() - (previous != null ? previous.cost() : 0);
+
+        // Keep at least the source we just parsed, whatever its size.
+        Iterator<ParsedSource> eldest = cache.values().iterator();
+        while (cachedBytes > cacheSize && cache.size() > 1) {
+          cachedBytes -= eldest.next().cost();
+          eldest.remove();
         }
       }
     }
 
-    System.err.println(String.format("Method {%s(%s)} not found in {%s}", name, Utils.getMethodParamsString(methodParams), file));
-
-    return null;
+    return checkParsed(source);
   }
 
-  private List<Parameter> getParamsForMethodName(String file, String name, Type[] methodParams)
-      throws FileNotFoundException, ParseException {
-    CompilationUnit javaFile = JavaParser.parse(new FileInputStream(file));
+  // Throws the error the source failed to parse with, if any.
+  private ParsedSource checkParsed(ParsedSource source) throws FileNotFoundException, ParseException {
+    if (source.error instanceof FileNotFoundException) throw (FileNotFoundException) source.error;
+    if (source.error instanceof ParseException) throw (ParseException) source.error;
+    if (source.error instanceof RuntimeException) throw (RuntimeException) source.error;
 
-    TypeDeclaration clazz = javaFile.getTypes().get(0);
-    return checkAllClassMembers(clazz.getName(), clazz.getMembers(), name, methodParams);
+    return source;
   }
 
-  private List<Parameter> checkAllClassMembers(String clazzName, List<BodyDeclaration> members, String targetMethodName,
-      Type[] targetMethodParams) {
-    for (BodyDeclaration bodyDeclaration : members) {
-      if (bodyDeclaration instanceof MethodDeclaration) {
-        MethodDeclaration method = (MethodDeclaration) bodyDeclaration;
-
-        if (checkIfMethodMatches(method.getName(), method.getParameters(), targetMethodName, targetMethodParams)) {
-          System.out.println("Found " + clazzName + "." + method.getName() + "(" + Utils.getMethodParamsString(method.getParameters()) + ")");
-          return method.getParameters();
-        }
-      } else if (bodyDeclaration instanceof ConstructorDeclaration) {
-        ConstructorDeclaration constructor = (ConstructorDeclaration) bodyDeclaration;
+  private ParsedSource parse(String file) {
+    try {
+      long modified = roots.lastModified(file);
+      byte[] bytes = roots.read(file);
+      return new ParsedSource(bytes.length, modified, JavaParser.parse(new ByteArrayInputStream(bytes)));
+    } catch (FileNotFoundException e) {
+      return new ParsedSource(0, e);
+    } catch (ParseException e) {
+      return new ParsedSource(roots.lastModified(file), e);
+    } catch (RuntimeException e) {
+      return new ParsedSource(roots.lastModified(file), e);
+    } catch (IOException e) {
+      return new ParsedSource(0, new FileNotFoundException(roots.describe(file) + " : " + e.getMessage()));
+    }
+  }
 
-        if (checkIfMethodMatches(constructor.getName(), constructor.getParameters(), targetMethodName, targetMethodParams)) {
-          System.out.println("Found " + clazzName + "." + constructor.getName() + "(" + Utils.getMethodParamsString(constructor.getParameters()) + ")");
-          return constructor.getParameters();
+  // The members of the first type of a source file and of the classes declared in it, which is all
+  // the lookups use; the syntax tree is not kept.
+  private static class ParsedSource {
+    final long size;
+    final long modified;
+    final TypeIndex type;
+    // By name; the first one if several have the same name.
+    final Map<String, TypeIndex> innerClasses = new HashMap<>();
+    final Exception error;
+
+    ParsedSource(long size, long modified, CompilationUnit unit) {
+      this.size = size;
+      this.modified = modified;
+      this.error = null;
+
+      TypeDeclaration clazz = unit.getTypes().get(0);
+      type = new TypeIndex(clazz);
+      if (clazz.getMembers() != null) {
+        for (BodyDeclaration bodyDeclaration : clazz.getMembers()) {
+          if (bodyDeclaration instanceof ClassOrInterfaceDeclaration) {
+            ClassOrInterfaceDeclaration innerClass = (ClassOrInterfaceDeclaration) bodyDeclaration;
+            if (!innerClasses.containsKey(innerClass.getName())) {
+              innerClasses.put(innerClass.getName(), new TypeIndex(innerClass));
+            }
+          }
         }
       }
     }
 
-    return null;
+    ParsedSource(long modified, Exception error) {
+      this.size = 0;
+      this.modified = modified;
+      this.type = null;
+      this.error = error;
+    }
+
+    long cost() {
+      return size + ENTRY_COST;
+    }
   }
 
-  private boolean checkIfMethodMatches(String methodName, List<Parameter> methodParameters, String targetMethodName,
-      Type[] targetMethodParams) {
-    if (methodName.equals(targetMethodName)) {
-      if (methodParameters == null && targetMethodParams.length != 0) {
-        return false;
+  // Parameter names of the members of a type, looked up by name and then by the sorted list of
+  // parameter type names. Only the first member declared with a given signature is kept, which is
+  // what the former linear scan over the members returned. It keeps no reference to the syntax tree.
+  static class TypeIndex {
+    final String name;
+    final Map<String, Map<List<String>, String[]>> members = new HashMap<>();
+
+    TypeIndex(TypeDeclaration type) {
+      name = type.getName();
+      if (type.getMembers() == null) {
+        return;
       }
 
-      if (checkIfParamsMatches(methodParameters, targetMethodParams)) {
-        return true;
+      for (BodyDeclaration bodyDeclaration : type.getMembers()) {
+        if (bodyDeclaration instanceof MethodDeclaration) {
+          MethodDeclaration method = (MethodDeclaration) bodyDeclaration;
+          add(method.getName(), method.getParameters());
+        } else if (bodyDeclaration instanceof ConstructorDeclaration) {
+          ConstructorDeclaration constructor = (ConstructorDeclaration) bodyDeclaration;
+          add(constructor.getName(), constructor.getParameters());
+        }
       }
     }
-    return false;
-  }
 
-  private boolean checkIfParamsMatches(List<Parameter> methodParams, Type[] pTypes) {
-    List<String> convertedParams = new ArrayList<>(methodParams.size());
-    for (Parameter methodParam : methodParams) {
-      convertedParams.add(methodParam.getType().toString());
-    }
-    Collections.sort(convertedParams);
+    private void add(String memberName, List<Parameter> parameters) {
+      List<String> convertedParams = new ArrayList<>();
+      String[] names = new String[parameters != null ? parameters.size() : 0];
+      for (int i = 0; i < names.length; i++) {
+        convertedParams.add(parameters.get(i).getType().toString());
+        names[i] = parameters.get(i).getId().getName();
+      }
+      Collections.sort(convertedParams);
 
-    List<String> convertedTypes = new ArrayList<>(pTypes.length);
-    for (Type pType : pTypes) {
-      convertedTypes.add(Utils.getShortTypeName(pType));
+      Map<List<String>, String[]> overloads = members.get(memberName);
+      if (overloads == null) {
+        overloads = new HashMap<>();
+        members.put(memberName, overloads);
+      }
+      if (!overloads.containsKey(convertedParams)) {
+        overloads.put(convertedParams, names);
+      }
     }
-    Collections.sort(convertedTypes);
-
-    return convertedTypes.equals(convertedParams);
   }
 }